@@ -0,0 +1,108 @@
+package com.github.juliomarcopineda;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Defaults;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the same command line as the JMH runner (for example a regular expression of the benchmarks to run, or -p
+ * type=DFBP to fix a parameter) and always adds the gc profiler, so that every result also reports the bytes allocated per operation.
+ *
+ * The benchmarks are run once per distinct peptide of FragmentPipelineBenchmark.getDistinctPeptideParams, instead of once per combination of the
+ * parameters, and the results of all the runs are printed together at the end, and written to the result file if one is requested.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		
+		// The values of every parameter, from the command line or else from the annotations of the benchmark
+		Map<String, Collection<String>> values = new LinkedHashMap<>();
+		for (String name : FragmentPipelineBenchmark.PEPTIDE_PARAMS) {
+			values.put(name, commandLine.getParameter(name)
+				.orElseGet(() -> getDefaultValues(name)));
+		}
+		
+		List<RunResult> results = new ArrayList<>();
+		for (Map<String, String> params : FragmentPipelineBenchmark.getDistinctPeptideParams(values)) {
+			OptionsBuilder options = new OptionsBuilder();
+			options.parent(commandLine)
+				.addProfiler(GCProfiler.class);
+			
+			for (Map.Entry<String, String> param : params.entrySet()) {
+				options.param(param.getKey(), param.getValue());
+			}
+			
+			results.addAll(new Runner(options.build()).run());
+		}
+		
+		System.out.println();
+		ResultFormatFactory.getInstance(ResultFormatType.TEXT, System.out)
+			.writeOut(results);
+		
+		// Every run wrote its own results to the result file, replace them with the results of all the runs
+		boolean hasResultFile = commandLine.getResult()
+			.hasValue();
+		boolean hasResultFormat = commandLine.getResultFormat()
+			.hasValue();
+		
+		if (hasResultFile || hasResultFormat) {
+			ResultFormatType format = commandLine.getResultFormat()
+				.orElse(Defaults.RESULT_FORMAT);
+			String resultFile = commandLine.getResult()
+				.orElse(Defaults.RESULT_FILE_PREFIX + "." + format.toString()
+					.toLowerCase());
+			
+			ResultFormatFactory.getInstance(format, resultFile)
+				.writeOut(results);
+		}
+	}
+	
+	/**
+	 * Returns the values of the @Param annotation of a field of PeptideState, or the names of the constants of its enum type if the annotation has
+	 * no values.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	private static Collection<String> getDefaultValues(String name) {
+		try {
+			Field field = FragmentPipelineBenchmark.PeptideState.class.getField(name);
+			Class<?> type = field.getType();
+			String[] values = field.getAnnotation(Param.class)
+				.value();
+			
+			if (values.length == 0 && type.isEnum()) {
+				List<String> constants = new ArrayList<>();
+				for (Object constant : type.getEnumConstants()) {
+					constants.add(((Enum<?>) constant).name());
+				}
+				
+				return constants;
+			}
+			
+			return Arrays.asList(values);
+		}
+		catch (NoSuchFieldException e) {
+			throw new IllegalStateException("No parameter " + name + " in PeptideState", e);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.github.juliomarcopineda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.juliomarcopineda.peptide.Peptide;
+import com.github.juliomarcopineda.peptide.PeptideType;
+
+/**
+ * Benchmarks of the steps of the fragment pipeline: findAllFragments, measureAllFragmentWeights, findBranchedAndCyclicFragments on its own, and
+ * suggestFragments against the finished mass index.
+ *
+ * Every benchmark runs for every PeptideType over a sweep of sequence lengths and connection positions. The sequence is a prefix of a fixed
+ * sequence, repeated as needed, and the two connections are at connectionStart and connectionStart + connectionDistance, moved inside the sequence
+ * if needed. The connections of a LINEAR peptide are ignored. JMH runs every combination of the parameters, so BenchmarkRunner runs only the
+ * combinations of getDistinctPeptideParams: a LINEAR peptide once per length, and connections moved inside the sequence only if they do not land
+ * on the connections of another combination.
+ *
+ * The analyzers are quiet (see FragmentAnalyzer.setVerbose), but still record their phases in the default AnalysisMetrics.
+ *
+ * @author Julio Pineda
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FragmentPipelineBenchmark {
+	private static final String BASE_SEQUENCE = "CGYEQDPWGVRYWYGCKKKKB";
+	private static final int QUERIES = 64;
+	private static final double THRESHOLD = 1.0;
+	
+	/**
+	 * The names of the parameters of PeptideState.
+	 */
+	static final String[] PEPTIDE_PARAMS = { "type", "length", "connectionStart", "connectionDistance" };
+	
+	@State(Scope.Benchmark)
+	public static class PeptideState {
+		@Param
+		public PeptideType type;
+		
+		@Param({ "10", "15", "20", "25" })
+		public int length;
+		
+		@Param({ "0", "4" })
+		public int connectionStart;
+		
+		@Param({ "3", "9", "24" })
+		public int connectionDistance;
+		
+		public Peptide peptide;
+		
+		@Setup(Level.Trial)
+		public void setUp() {
+			this.peptide = createPeptide(this.type, this.length, this.connectionStart, this.connectionDistance);
+		}
+	}
+	
+	/**
+	 * An analyzer whose fragments are found, but not weighed.
+	 */
+	@State(Scope.Benchmark)
+	public static class FoundState {
+		public FragmentAnalyzer analyzer;
+		
+		@Setup(Level.Trial)
+		public void setUp(PeptideState peptideState) {
+			this.analyzer = new FragmentAnalyzer(peptideState.peptide).findAllFragments();
+		}
+	}
+	
+	/**
+	 * An analyzer whose linear fragments are weighed into a fresh fragment table before every invocation, ready for
+	 * findBranchedAndCyclicFragments, which adds to the table and to the set of fingerprints.
+	 */
+	@State(Scope.Benchmark)
+	public static class LinearState {
+		public FragmentAnalyzer analyzer;
+		
+		public FragmentTable fragmentTable;
+		public double[] linearWeights;
+		public long[] pieceFingerprints;
+		public LongHashSet fingerprints;
+		
+		@Setup(Level.Trial)
+		public void setUpAnalyzer(PeptideState peptideState) {
+			this.analyzer = new FragmentAnalyzer(peptideState.peptide).findAllFragments();
+		}
+		
+		@Setup(Level.Invocation)
+		public void setUpLinearFragments() {
+			int size = this.analyzer.getFragmentStore()
+				.size();
+			
+			this.fragmentTable = new FragmentTable();
+			this.linearWeights = new double[size];
+			this.pieceFingerprints = new long[size];
+			this.fingerprints = new LongHashSet();
+			
+			this.analyzer.measureLinearFragments(this.fragmentTable, this.linearWeights, this.pieceFingerprints, this.fingerprints);
+		}
+	}
+	
+	/**
+	 * An analyzer with the weights of all its fragments, and mass spec data spread over the weights of its fragments.
+	 */
+	@State(Scope.Benchmark)
+	public static class MeasuredState {
+		public FragmentAnalyzer analyzer;
+		public double[] queries;
+		
+		@Setup(Level.Trial)
+		public void setUp(PeptideState peptideState) {
+			this.analyzer = new FragmentAnalyzer(peptideState.peptide).findAllFragments()
+				.measureAllFragmentWeights();
+			
+			FragmentMassIndex index = this.analyzer.getMassIndex();
+			this.queries = new double[QUERIES];
+			
+			for (int i = 0; i < QUERIES; i++) {
+				this.queries[i] = index.getMass((int) ((long) i * (index.size() - 1) / (QUERIES - 1)));
+			}
+		}
+	}
+	
+	@Benchmark
+	public FragmentStore findAllFragments(PeptideState peptideState) {
+		return new FragmentAnalyzer(peptideState.peptide).findAllFragments()
+			.getFragmentStore();
+	}
+	
+	@Benchmark
+	public FragmentMassIndex measureAllFragmentWeights(FoundState foundState) {
+		return foundState.analyzer.measureAllFragmentWeights()
+			.getMassIndex();
+	}
+	
+	@Benchmark
+	public FragmentTable findBranchedAndCyclicFragments(PeptideState peptideState, LinearState linearState) {
+		if (peptideState.type != PeptideType.LINEAR) {
+			linearState.analyzer.findBranchedAndCyclicFragments(linearState.fragmentTable, linearState.linearWeights, linearState.pieceFingerprints,
+					linearState.fingerprints);
+		}
+		
+		return linearState.fragmentTable;
+	}
+	
+	@Benchmark
+	public void suggestFragments(MeasuredState measuredState, Blackhole blackhole) {
+		for (double query : measuredState.queries) {
+			blackhole.consume(measuredState.analyzer.suggestFragments(query, THRESHOLD));
+		}
+	}
+	
+	/**
+	 * Returns the combinations of the values of the parameters of PeptideState (see PEPTIDE_PARAMS) that create distinct peptides, as maps of
+	 * <parameter, value>. A combination that creates the same peptide as an earlier combination is dropped.
+	 * 
+	 * @param values
+	 * @return
+	 */
+	static List<Map<String, String>> getDistinctPeptideParams(Map<String, Collection<String>> values) {
+		Map<String, Map<String, String>> distinctParams = new LinkedHashMap<>();
+		
+		for (String type : values.get("type")) {
+			for (String length : values.get("length")) {
+				for (String connectionStart : values.get("connectionStart")) {
+					for (String connectionDistance : values.get("connectionDistance")) {
+						Peptide peptide = createPeptide(PeptideType.valueOf(type), Integer.parseInt(length), Integer.parseInt(connectionStart),
+								Integer.parseInt(connectionDistance));
+						
+						Map<String, String> params = new LinkedHashMap<>();
+						params.put("type", type);
+						params.put("length", length);
+						params.put("connectionStart", connectionStart);
+						params.put("connectionDistance", connectionDistance);
+						
+						distinctParams.putIfAbsent(type + " " + length + " " + peptide.getConnections(), params);
+					}
+				}
+			}
+		}
+		
+		return new ArrayList<>(distinctParams.values());
+	}
+	
+	/**
+	 * Creates a peptide of the given type with the given length, from a prefix of BASE_SEQUENCE repeated as needed, and two connections.
+	 * 
+	 * @param type
+	 * @param length
+	 * @param connectionStart
+	 * @param connectionDistance
+	 * @return
+	 */
+	static Peptide createPeptide(PeptideType type, int length, int connectionStart, int connectionDistance) {
+		StringBuilder sequence = new StringBuilder(length);
+		while (sequence.length() < length) {
+			sequence.append(BASE_SEQUENCE, 0, Math.min(BASE_SEQUENCE.length(), length - sequence.length()));
+		}
+		
+		String peptideSequence = sequence.toString();
+		
+		List<Integer> connections = new ArrayList<>();
+		if (type != PeptideType.LINEAR) {
+			int first = Math.min(connectionStart, length - 2);
+			int second = Math.min(first + Math.max(1, connectionDistance), length - 1);
+			
+			connections.addAll(Arrays.asList(first, second));
+		}
+		
+		Peptide peptide = new Peptide();
+		peptide.setSequence(peptideSequence);
+		peptide.setType(type);
+		peptide.setConnections(connections);
+		peptide.setGraph(PeptideSerumStability.createGraphStructure(peptideSequence, connections, type));
+		
+		if (type == PeptideType.CUSTOM) {
+			peptide.setCustomWeight(250);
+		}
+		
+		return peptide;
+	}
+}
@@ -0,0 +1,266 @@
+package com.github.juliomarcopineda;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.github.juliomarcopineda.peptide.Peptide;
+
+/**
+ * AnalysisDaemon is a long-running server that matches mass spec data against the fragments of peptides, keeping the analyzers of the recently
+ * used peptides warm in an AnalyzerCache. A query for a peptide analyzed before only pays for the lookup of its mass spec data in the mass index,
+ * instead of the start of a JVM, the reading of weights.csv and the search for all the fragments of the peptide.
+ *
+ * The daemon only listens on the loopback address, so it is reachable from the same host only. Every connection is served by its own thread and
+ * can send any number of requests, one after the other. The protocol is line-based UTF-8 text. A request is three lines:
+ *
+ * MATCH [threshold] [optional: ion forms] [optional: ISOTOPES]
+ * The peptide, in the format of a peptide line of the input file, for example "CGYEQDPWGVRYWYGCKKKKB dfbp 0 15".
+ * The mass spec data, delimited with white space.
+ *
+ * With ISOTOPES, the request has a fourth line with the intensities of the mass spec data, in the same order, or an empty line if there are none.
+ * The threshold is parsed by Tolerance.parse and the ion forms by IonModel.parse. The response is "OK" followed by the number of matches, then one
+ * line per match: "mass spec,suggested fragment,calculated weight", followed by ",ion form" if the ion model is not neutral and by ",isotope score"
+ * with ISOTOPES, see IsotopeScorer. The matches are in the order of FragmentAnalyzer.matchFragments. A request that cannot be answered gets a single
+ * line "ERROR" followed by a message. PING is answered with "OK 0", and QUIT closes the connection.
+ *
+ * The parsing of the requests, the search of the peptides that are not warm yet, the matching and the writing of the responses are recorded in
+ * the default AnalysisMetrics, so they can be read over JMX while the daemon runs, see AnalysisMetrics.registerMBean.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class AnalysisDaemon implements Closeable {
+	private static final String ISOTOPES = "ISOTOPES";
+	
+	private ServerSocket serverSocket;
+	private AnalyzerCache analyzers;
+	private ExecutorService connections;
+	
+	/**
+	 * Constructor that binds the daemon to the given port of the loopback address (0 for any free port) and accepts the cache of analyzers it
+	 * serves the requests with. The daemon does not accept connections until run is called.
+	 * 
+	 * @param port
+	 * @param analyzers
+	 * @throws IOException
+	 */
+	public AnalysisDaemon(int port, AnalyzerCache analyzers) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.analyzers = analyzers;
+		this.connections = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "analysis-daemon-connection");
+			thread.setDaemon(true);
+			
+			return thread;
+		});
+	}
+	
+	/**
+	 * Returns the port the daemon listens on.
+	 * 
+	 * @return
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * Accepts connections until the daemon is closed. Every connection is served on its own thread.
+	 * 
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		while (!this.serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = this.serverSocket.accept();
+			}
+			catch (SocketException e) {
+				// The server socket was closed
+				break;
+			}
+			
+			this.connections.execute(() -> serve(socket));
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.serverSocket.close();
+		this.connections.shutdownNow();
+	}
+	
+	/**
+	 * Answers the requests of a connection until the client sends QUIT or closes the connection.
+	 * 
+	 * @param socket
+	 */
+	private void serve(Socket socket) {
+		try (Socket client = socket;
+				BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+				Writer writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))) {
+			
+			client.setTcpNoDelay(true);
+			
+			List<String> tokens = new ArrayList<>();
+			
+			String command;
+			while ((command = reader.readLine()) != null) {
+				command = command.trim();
+				
+				if (command.isEmpty()) {
+					continue;
+				}
+				else if (command.equals("QUIT")) {
+					break;
+				}
+				else if (command.equals("PING")) {
+					writer.write("OK 0\n");
+				}
+				else if (command.startsWith("MATCH")) {
+					String peptideLine = reader.readLine();
+					String massSpecLine = reader.readLine();
+					String intensitiesLine = command.matches(".*\\s" + ISOTOPES) ? reader.readLine() : "";
+					
+					if (peptideLine == null || massSpecLine == null || intensitiesLine == null) {
+						break;
+					}
+					
+					match(command, peptideLine, massSpecLine, intensitiesLine, tokens, writer);
+				}
+				else {
+					writeError(writer, "Unknown command: " + command);
+				}
+				
+				writer.flush();
+			}
+		}
+		catch (IOException e) {
+			// The client went away, nothing left to answer
+		}
+	}
+	
+	/**
+	 * Answers a MATCH request.
+	 * 
+	 * @param command
+	 * @param peptideLine
+	 * @param massSpecLine
+	 * @param intensitiesLine
+	 * @param tokens
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void match(String command, String peptideLine, String massSpecLine, String intensitiesLine, List<String> tokens, Writer writer)
+			throws IOException {
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
+		
+		List<FragmentMatch> matches;
+		IonModel ionModel;
+		boolean isotopes;
+		
+		try {
+			String[] arguments = command.split("\\s+");
+			isotopes = arguments[arguments.length - 1].equals(ISOTOPES);
+			
+			int length = isotopes ? arguments.length - 1 : arguments.length;
+			if (length < 2 || length > 3) {
+				throw new IllegalArgumentException("Expected MATCH [threshold] [optional: ion forms] [optional: ISOTOPES]");
+			}
+			
+			Tolerance tolerance = Tolerance.parse(arguments[1]);
+			ionModel = length == 3 ? IonModel.parse(arguments[2]) : IonModel.neutral();
+			
+			Peptide peptide = InputParser.parsePeptide(peptideLine, tokens);
+			double[] massSpecData = InputParser.parseMassSpecData(massSpecLine)
+				.toDoubleArray();
+			
+			double[] intensities = null;
+			if (!intensitiesLine.trim()
+				.isEmpty()) {
+				intensities = InputParser.parseMassSpecData(intensitiesLine)
+					.toDoubleArray();
+				
+				if (intensities.length != massSpecData.length) {
+					throw new IllegalArgumentException("Expected " + massSpecData.length + " intensities, got " + intensities.length);
+				}
+			}
+			
+			metrics.stop(AnalysisMetrics.Phase.PARSE, startNanos);
+			
+			FragmentAnalyzer analyzer = this.analyzers.get(peptide);
+			
+			if (ionModel.isNeutral() && !tolerance.isPpm()) {
+				matches = analyzer.matchFragments(massSpecData, tolerance.getValue());
+			}
+			else {
+				matches = analyzer.matchFragments(massSpecData, tolerance, ionModel);
+			}
+			
+			if (isotopes) {
+				matches = new IsotopeScorer(analyzer).score(matches, massSpecData, intensities, tolerance);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread()
+				.interrupt();
+			
+			writeError(writer, "Interrupted");
+			return;
+		}
+		catch (RuntimeException e) {
+			writeError(writer, e.toString());
+			return;
+		}
+		
+		startNanos = metrics.start();
+		
+		StringBuilder response = new StringBuilder();
+		response.append("OK ")
+			.append(matches.size())
+			.append('\n');
+		
+		for (FragmentMatch match : matches) {
+			response.append(match.getMassSpecData())
+				.append(',')
+				.append(match.getFragment())
+				.append(',')
+				.append(match.getWeight());
+			
+			if (!ionModel.isNeutral()) {
+				response.append(',')
+					.append(match.getIonForm()
+						.getName());
+			}
+			
+			if (isotopes) {
+				response.append(',')
+					.append(match.getIsotopeScore());
+			}
+			
+			response.append('\n');
+		}
+		
+		writer.write(response.toString());
+		metrics.stop(AnalysisMetrics.Phase.WRITE, startNanos);
+	}
+	
+	private static void writeError(Writer writer, String message) throws IOException {
+		writer.write("ERROR " + message.replace('\n', ' ') + "\n");
+	}
+}
@@ -0,0 +1,272 @@
+package com.github.juliomarcopineda;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * AnalysisMetrics counts and times the phases of the analysis of peptides: parsing the input, finding the fragments, building the branched and
+ * cyclic fragments, weighing the fragments, building the mass index, matching the mass spec data and writing the output. It also counts the
+ * fragments found, the mass spec data (peaks) matched and the matches, so a run reports how many fragments were suggested per peak.
+ *
+ * Every FragmentAnalyzer records into the default metrics, see getDefault. The counters are LongAdders, so the workers of a run and the connections
+ * of a daemon record their phases without contending on a lock. The metrics are written as JSON at the end of a run with writeJson, and can be
+ * read over JMX while a run is in progress once they are registered with registerMBean.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class AnalysisMetrics implements AnalysisMetricsMXBean {
+	public static final String OBJECT_NAME = "com.github.juliomarcopineda:type=AnalysisMetrics";
+	
+	/**
+	 * The phases of the analysis that are counted and timed.
+	 */
+	public enum Phase {
+		PARSE, ENUMERATE, BRANCHED_CYCLIC, WEIGH, INDEX, MATCH, WRITE
+	}
+	
+	private final LongAdder[] phaseCounts = createAdders(Phase.values().length);
+	private final LongAdder[] phaseNanos = createAdders(Phase.values().length);
+	
+	private final LongAdder fragments = new LongAdder();
+	private final LongAdder branchedFragments = new LongAdder();
+	private final LongAdder cyclicFragments = new LongAdder();
+	private final LongAdder peaks = new LongAdder();
+	private final LongAdder matches = new LongAdder();
+	
+	/**
+	 * Returns the metrics every FragmentAnalyzer records into.
+	 * 
+	 * @return
+	 */
+	public static AnalysisMetrics getDefault() {
+		return DefaultMetrics.INSTANCE;
+	}
+	
+	/**
+	 * Returns the start time of a phase, to be given to stop once the phase is done.
+	 * 
+	 * @return
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Counts one run of the phase, which started at the given time (see start).
+	 * 
+	 * @param phase
+	 * @param startNanos
+	 */
+	public void stop(Phase phase, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		
+		this.phaseCounts[phase.ordinal()].increment();
+		this.phaseNanos[phase.ordinal()].add(nanos);
+	}
+	
+	/**
+	 * Counts the fragments of a fragment table by their kind.
+	 * 
+	 * @param fragmentTable
+	 */
+	public void addFragments(FragmentTable fragmentTable) {
+		int branched = 0;
+		int cyclic = 0;
+		
+		for (int fragment = 0; fragment < fragmentTable.size(); fragment++) {
+			byte kind = fragmentTable.getKind(fragment);
+			
+			if (kind == FragmentTable.BRANCHED) {
+				branched++;
+			}
+			else if (kind == FragmentTable.CYCLIC) {
+				cyclic++;
+			}
+		}
+		
+		this.fragments.add(fragmentTable.size());
+		this.branchedFragments.add(branched);
+		this.cyclicFragments.add(cyclic);
+	}
+	
+	/**
+	 * Counts the mass spec data matched against the fragments of a peptide, and the matches they got.
+	 * 
+	 * @param peaks
+	 * @param matches
+	 */
+	public void addMatches(int peaks, int matches) {
+		this.peaks.add(peaks);
+		this.matches.add(matches);
+	}
+	
+	@Override
+	public Map<String, Long> getPhaseCounts() {
+		return toMap(this.phaseCounts);
+	}
+	
+	@Override
+	public Map<String, Long> getPhaseNanos() {
+		return toMap(this.phaseNanos);
+	}
+	
+	@Override
+	public long getFragmentCount() {
+		return fragments.sum();
+	}
+	
+	@Override
+	public long getBranchedFragmentCount() {
+		return branchedFragments.sum();
+	}
+	
+	@Override
+	public long getCyclicFragmentCount() {
+		return cyclicFragments.sum();
+	}
+	
+	@Override
+	public long getPeakCount() {
+		return peaks.sum();
+	}
+	
+	@Override
+	public long getMatchCount() {
+		return matches.sum();
+	}
+	
+	@Override
+	public double getMatchesPerPeak() {
+		long peaks = getPeakCount();
+		
+		return peaks == 0 ? 0 : (double) getMatchCount() / peaks;
+	}
+	
+	@Override
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		
+		json.append("{\n");
+		json.append("  \"fragments\": ")
+			.append(getFragmentCount())
+			.append(",\n");
+		json.append("  \"branchedFragments\": ")
+			.append(getBranchedFragmentCount())
+			.append(",\n");
+		json.append("  \"cyclicFragments\": ")
+			.append(getCyclicFragmentCount())
+			.append(",\n");
+		json.append("  \"peaks\": ")
+			.append(getPeakCount())
+			.append(",\n");
+		json.append("  \"matches\": ")
+			.append(getMatchCount())
+			.append(",\n");
+		json.append("  \"matchesPerPeak\": ")
+			.append(getMatchesPerPeak())
+			.append(",\n");
+		json.append("  \"phases\": {\n");
+		
+		Phase[] phases = Phase.values();
+		for (Phase phase : phases) {
+			json.append("    \"")
+				.append(getName(phase))
+				.append("\": {\"count\": ")
+				.append(this.phaseCounts[phase.ordinal()].sum())
+				.append(", \"nanos\": ")
+				.append(this.phaseNanos[phase.ordinal()].sum())
+				.append(phase.ordinal() + 1 < phases.length ? "},\n" : "}\n");
+		}
+		
+		json.append("  }\n");
+		json.append("}\n");
+		
+		return json.toString();
+	}
+	
+	/**
+	 * Writes the metrics to the file as a JSON object, see toJson.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeJson(Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write(toJson());
+		}
+	}
+	
+	@Override
+	public void reset() {
+		for (int i = 0; i < this.phaseCounts.length; i++) {
+			this.phaseCounts[i].reset();
+			this.phaseNanos[i].reset();
+		}
+		
+		this.fragments.reset();
+		this.branchedFragments.reset();
+		this.cyclicFragments.reset();
+		this.peaks.reset();
+		this.matches.reset();
+	}
+	
+	/**
+	 * Registers the default metrics in the platform MBean server under OBJECT_NAME. Registering them more than once has no effect.
+	 */
+	public static void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer()
+				.registerMBean(getDefault(), new ObjectName(OBJECT_NAME));
+		}
+		catch (InstanceAlreadyExistsException e) {
+			// Already registered
+		}
+		catch (JMException e) {
+			throw new IllegalStateException("Could not register the analysis metrics", e);
+		}
+	}
+	
+	private static String getName(Phase phase) {
+		return phase.name()
+			.toLowerCase();
+	}
+	
+	private static Map<String, Long> toMap(LongAdder[] adders) {
+		Map<String, Long> map = new LinkedHashMap<>();
+		
+		for (Phase phase : Phase.values()) {
+			map.put(getName(phase), adders[phase.ordinal()].sum());
+		}
+		
+		return map;
+	}
+	
+	private static LongAdder[] createAdders(int size) {
+		LongAdder[] adders = new LongAdder[size];
+		
+		for (int i = 0; i < size; i++) {
+			adders[i] = new LongAdder();
+		}
+		
+		return adders;
+	}
+	
+	/**
+	 * Holder of the default metrics, created the first time they are requested.
+	 */
+	private static class DefaultMetrics {
+		private static final AnalysisMetrics INSTANCE = new AnalysisMetrics();
+	}
+}
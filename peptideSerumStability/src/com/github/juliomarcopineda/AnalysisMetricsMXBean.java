@@ -0,0 +1,50 @@
+package com.github.juliomarcopineda;
+
+import java.util.Map;
+
+/**
+ * AnalysisMetricsMXBean is the management interface of AnalysisMetrics, so the metrics of a run can be read with any JMX client (for example
+ * jconsole) while the run is in progress.
+ *
+ * @author Julio Pineda
+ *
+ */
+public interface AnalysisMetricsMXBean {
+	/**
+	 * Returns the number of times each phase ran, by the lower case name of the phase.
+	 * 
+	 * @return
+	 */
+	Map<String, Long> getPhaseCounts();
+	
+	/**
+	 * Returns the total time spent in each phase in nanoseconds, by the lower case name of the phase.
+	 * 
+	 * @return
+	 */
+	Map<String, Long> getPhaseNanos();
+	
+	long getFragmentCount();
+	
+	long getBranchedFragmentCount();
+	
+	long getCyclicFragmentCount();
+	
+	long getPeakCount();
+	
+	long getMatchCount();
+	
+	double getMatchesPerPeak();
+	
+	/**
+	 * Returns all the metrics as a JSON object.
+	 * 
+	 * @return
+	 */
+	String toJson();
+	
+	/**
+	 * Sets every counter and timer back to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,137 @@
+package com.github.juliomarcopineda;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.github.juliomarcopineda.peptide.Peptide;
+
+/**
+ * AnalyzerCache keeps the analyzers of the most recently used peptides in memory, with the weights of all their fragments, so a peptide analyzed
+ * before is matched against new mass spec data without finding its fragments again. Once more than the maximum number of analyzers are kept, the
+ * analyzer used the longest time ago is dropped.
+ *
+ * The analyzers are identified by the same key as the libraries of FragmentLibraryCache. An analyzer that is not in memory is loaded from the
+ * library cache if there is one, or else found and weighed. The cache is shared by many threads: a peptide requested by several threads at once is
+ * only analyzed once, and the others wait for it. The analyzers themselves are only read once they are cached.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class AnalyzerCache {
+	private int maxAnalyzers;
+	private FragmentLibraryCache libraryCache;
+	private ResidueMassRegistry residueMasses;
+	
+	private Map<String, FutureTask<FragmentAnalyzer>> analyzers;
+	
+	/**
+	 * Constructor that accepts the maximum number of analyzers kept in memory and an optional cache of fragment libraries (or null). The peptides are
+	 * analyzed with the residue registry of the library cache, or the default registry without one.
+	 * 
+	 * @param maxAnalyzers
+	 * @param libraryCache
+	 */
+	public AnalyzerCache(int maxAnalyzers, FragmentLibraryCache libraryCache) {
+		this(maxAnalyzers, libraryCache, libraryCache != null ? libraryCache.getResidueMasses() : ResidueMassRegistry.getDefault());
+	}
+	
+	/**
+	 * Constructor that accepts the maximum number of analyzers kept in memory, an optional cache of fragment libraries (or null) and the residue
+	 * registry the peptides are analyzed with, which must be the registry of the library cache.
+	 * 
+	 * @param maxAnalyzers
+	 * @param libraryCache
+	 * @param residueMasses
+	 */
+	public AnalyzerCache(int maxAnalyzers, FragmentLibraryCache libraryCache, ResidueMassRegistry residueMasses) {
+		if (maxAnalyzers < 1) {
+			throw new IllegalArgumentException("At least one analyzer must be kept in memory: " + maxAnalyzers);
+		}
+		
+		if (libraryCache != null && libraryCache.getResidueMasses() != residueMasses) {
+			throw new IllegalArgumentException("The library cache analyzes the peptides with another residue registry");
+		}
+		
+		this.maxAnalyzers = maxAnalyzers;
+		this.libraryCache = libraryCache;
+		this.residueMasses = residueMasses;
+		
+		// Access order, so that the eldest entry is the analyzer used the longest time ago
+		this.analyzers = new LinkedHashMap<String, FutureTask<FragmentAnalyzer>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, FutureTask<FragmentAnalyzer>> eldest) {
+				return size() > AnalyzerCache.this.maxAnalyzers;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the analyzer of the peptide with the weights of all its fragments, from memory if the peptide was analyzed recently.
+	 * 
+	 * @param peptide
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public FragmentAnalyzer get(Peptide peptide) throws InterruptedException {
+		String key = FragmentLibraryCache.createKey(peptide, this.residueMasses);
+		
+		FutureTask<FragmentAnalyzer> analyzer;
+		boolean isNew = false;
+		
+		synchronized (this.analyzers) {
+			analyzer = this.analyzers.get(key);
+			
+			if (analyzer == null) {
+				analyzer = new FutureTask<>(() -> analyze(peptide));
+				this.analyzers.put(key, analyzer);
+				isNew = true;
+			}
+		}
+		
+		// The analysis runs outside of the lock, so other peptides can be served in the meantime
+		if (isNew) {
+			analyzer.run();
+		}
+		
+		try {
+			return analyzer.get();
+		}
+		catch (ExecutionException e) {
+			// Forget the failed analysis, so that the next request tries again
+			synchronized (this.analyzers) {
+				this.analyzers.remove(key, analyzer);
+			}
+			
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			
+			throw new IllegalStateException(cause);
+		}
+	}
+	
+	/**
+	 * Returns the number of analyzers in memory.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		synchronized (this.analyzers) {
+			return this.analyzers.size();
+		}
+	}
+	
+	private FragmentAnalyzer analyze(Peptide peptide) {
+		if (this.libraryCache != null) {
+			return this.libraryCache.analyze(peptide);
+		}
+		
+		return new FragmentAnalyzer(peptide, this.residueMasses).findAllFragments()
+			.measureAllFragmentWeights();
+	}
+}
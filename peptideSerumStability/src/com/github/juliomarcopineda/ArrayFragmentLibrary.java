@@ -0,0 +1,51 @@
+package com.github.juliomarcopineda;
+
+import java.util.Arrays;
+
+/**
+ * ArrayFragmentLibrary is a FragmentLibrary kept in arrays on the heap, as created by FragmentAnalyzer.createLibrary().
+ *
+ * The tokens of all the fragments are kept in one int array. The tokens of the i-th lightest fragment go from offsets[i] (inclusive) to
+ * offsets[i + 1] (exclusive).
+ *
+ * @author Julio Pineda
+ *
+ */
+public class ArrayFragmentLibrary implements FragmentLibrary {
+	private double[] masses;
+	private int[] offsets;
+	private int[] tokens;
+	
+	/**
+	 * Constructor that accepts the sorted weights of the fragments, the offsets of their tokens and the tokens of all the fragments.
+	 * 
+	 * @param masses
+	 * @param offsets
+	 * @param tokens
+	 */
+	public ArrayFragmentLibrary(double[] masses, int[] offsets, int[] tokens) {
+		this.masses = masses;
+		this.offsets = offsets;
+		this.tokens = tokens;
+	}
+	
+	@Override
+	public int size() {
+		return masses.length;
+	}
+	
+	@Override
+	public double getMass(int i) {
+		return masses[i];
+	}
+	
+	@Override
+	public int[] getTokens(int i) {
+		return Arrays.copyOfRange(tokens, offsets[i], offsets[i + 1]);
+	}
+	
+	@Override
+	public FragmentMassIndex createMassIndex() {
+		return new FragmentMassIndex(masses);
+	}
+}
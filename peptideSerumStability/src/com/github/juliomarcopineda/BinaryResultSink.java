@@ -0,0 +1,191 @@
+package com.github.juliomarcopineda;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BinaryResultSink writes the suggested fragments in a compact binary columnar format, so that they can be loaded without parsing text. All the
+ * numbers are little-endian.
+ * 
+ * The file starts with two ints: the magic number and the version of the format. Then an int with the number of ion forms, followed by the name of
+ * every ion form as an int with its length in bytes and the name in UTF-8. The number of ion forms is 0 when the matches have no ion forms (see
+ * IonModel.isNeutral). Then an int that is 1 if the matches have isotope scores and 0 otherwise. Then every peptide is written as a block:
+ * 
+ * An int with the length of the peptide sequence in bytes, then the sequence in UTF-8.
+ * An int with the number of rows of the peptide.
+ * The mass spec data of every row, as doubles.
+ * The calculated weight of every row, as doubles.
+ * The length of the suggested fragment of every row in bytes, as ints, then all the suggested fragments in UTF-8, one after the other.
+ * If there are ion forms, the position of the ion form of every row in the list of ion forms of the header, as ints.
+ * If there are isotope scores, the isotope score of every row, as doubles.
+ * 
+ * Peptides without any suggested fragment have no block. The file ends with an int of -1 in place of the length of a peptide sequence.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public class BinaryResultSink implements ResultSink {
+	private static final int MAGIC = 0x4252534d;
+	private static final int VERSION = 3;
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private OutputStream output;
+	private ByteBuffer buffer;
+	private Map<IonForm, Integer> ionForms; // null without ion forms
+	private boolean isotopeScores;
+	
+	/**
+	 * Constructor that accepts the output stream of the file and writes the header of the file without ion forms and isotope scores.
+	 * 
+	 * @param output
+	 * @throws IOException
+	 */
+	public BinaryResultSink(OutputStream output) throws IOException {
+		this(output, null, false);
+	}
+	
+	/**
+	 * Constructor that accepts the output stream of the file, the ion model of the matches (or null to write no ion forms) and whether to write the
+	 * isotope scores of the matches, and writes the header of the file.
+	 * 
+	 * @param output
+	 * @param ionModel
+	 * @param isotopeScores
+	 * @throws IOException
+	 */
+	public BinaryResultSink(OutputStream output, IonModel ionModel, boolean isotopeScores) throws IOException {
+		this.output = output;
+		this.isotopeScores = isotopeScores;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE)
+			.order(ByteOrder.LITTLE_ENDIAN);
+		
+		this.buffer.putInt(MAGIC)
+			.putInt(VERSION);
+		
+		if (ionModel == null) {
+			putInt(0);
+		}
+		else {
+			List<IonForm> forms = ionModel.getForms();
+			
+			this.ionForms = new HashMap<>();
+			putInt(forms.size());
+			
+			for (IonForm form : forms) {
+				this.ionForms.put(form, this.ionForms.size());
+				putBytes(form.getName()
+					.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		
+		putInt(isotopeScores ? 1 : 0);
+	}
+	
+	@Override
+	public void write(String peptideSequence, List<FragmentMatch> matches) throws IOException {
+		if (matches.isEmpty()) {
+			return;
+		}
+		
+		putBytes(peptideSequence.getBytes(StandardCharsets.UTF_8));
+		putInt(matches.size());
+		
+		for (FragmentMatch match : matches) {
+			putDouble(match.getMassSpecData());
+		}
+		
+		for (FragmentMatch match : matches) {
+			putDouble(match.getWeight());
+		}
+		
+		byte[][] fragments = new byte[matches.size()][];
+		for (int i = 0; i < fragments.length; i++) {
+			fragments[i] = matches.get(i)
+				.getFragment()
+				.getBytes(StandardCharsets.UTF_8);
+			putInt(fragments[i].length);
+		}
+		
+		for (byte[] fragment : fragments) {
+			put(fragment);
+		}
+		
+		if (this.ionForms != null) {
+			for (FragmentMatch match : matches) {
+				Integer ionForm = this.ionForms.get(match.getIonForm());
+				
+				if (ionForm == null) {
+					throw new IllegalArgumentException("Ion form is not in the ion model of the file: " + match.getIonForm());
+				}
+				
+				putInt(ionForm);
+			}
+		}
+		
+		if (this.isotopeScores) {
+			for (FragmentMatch match : matches) {
+				putDouble(match.getIsotopeScore());
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			putInt(-1);
+			flush();
+		}
+		finally {
+			this.output.close();
+		}
+	}
+	
+	private void putInt(int value) throws IOException {
+		ensureRemaining(4);
+		this.buffer.putInt(value);
+	}
+	
+	private void putDouble(double value) throws IOException {
+		ensureRemaining(8);
+		this.buffer.putDouble(value);
+	}
+	
+	/**
+	 * Writes the length of the bytes as an int, then the bytes.
+	 * 
+	 * @param bytes
+	 * @throws IOException
+	 */
+	private void putBytes(byte[] bytes) throws IOException {
+		putInt(bytes.length);
+		put(bytes);
+	}
+	
+	private void put(byte[] bytes) throws IOException {
+		if (bytes.length > this.buffer.capacity()) {
+			flush();
+			this.output.write(bytes);
+		}
+		else {
+			ensureRemaining(bytes.length);
+			this.buffer.put(bytes);
+		}
+	}
+	
+	private void ensureRemaining(int bytes) throws IOException {
+		if (this.buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+	
+	private void flush() throws IOException {
+		this.output.write(this.buffer.array(), 0, this.buffer.position());
+		this.buffer.clear();
+	}
+}
@@ -0,0 +1,114 @@
+package com.github.juliomarcopineda;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * CsvResultSink writes the suggested fragments to a CSV file with the following format:
+ * | Peptide | Mass Spec | Suggested Fragment | Calculated Weight |
+ * 
+ * optionally followed by the columns | Ion Form | and | Isotope Score | of the matches.
+ * 
+ * The rows are appended to one reusable StringBuilder, which formats the doubles without creating a String for each of them, and are copied to the
+ * writer through one reusable char array whenever the builder is full. The doubles are written exactly like Double.toString.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public class CsvResultSink implements ResultSink {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private Writer writer;
+	private StringBuilder rows;
+	private char[] chars;
+	private boolean ionForms;
+	private boolean isotopeScores;
+	
+	/**
+	 * Constructor that accepts the output stream of the CSV file and writes the header of the file without the ion forms and isotope scores.
+	 * 
+	 * @param output
+	 * @throws IOException
+	 */
+	public CsvResultSink(OutputStream output) throws IOException {
+		this(output, false, false);
+	}
+	
+	/**
+	 * Constructor that accepts the output stream of the CSV file and whether to write the ion forms and the isotope scores of the matches, and
+	 * writes the header of the file.
+	 * 
+	 * @param output
+	 * @param ionForms
+	 * @param isotopeScores
+	 * @throws IOException
+	 */
+	public CsvResultSink(OutputStream output, boolean ionForms, boolean isotopeScores) throws IOException {
+		this.ionForms = ionForms;
+		this.isotopeScores = isotopeScores;
+		this.writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+		this.rows = new StringBuilder(BUFFER_SIZE);
+		this.chars = new char[BUFFER_SIZE];
+		
+		this.rows.append("Peptide,Mass Spec,Suggested Fragment,Calculated Weight")
+			.append(ionForms ? ",Ion Form" : "")
+			.append(isotopeScores ? ",Isotope Score" : "")
+			.append('\n');
+	}
+	
+	@Override
+	public void write(String peptideSequence, List<FragmentMatch> matches) throws IOException {
+		for (FragmentMatch match : matches) {
+			this.rows.append(peptideSequence)
+				.append(',')
+				.append(match.getMassSpecData())
+				.append(',')
+				.append(match.getFragment())
+				.append(',')
+				.append(match.getWeight());
+			
+			if (this.ionForms) {
+				this.rows.append(',')
+					.append(match.getIonForm()
+						.getName());
+			}
+			
+			if (this.isotopeScores) {
+				this.rows.append(',')
+					.append(match.getIsotopeScore());
+			}
+			
+			this.rows.append('\n');
+			
+			if (this.rows.length() >= BUFFER_SIZE) {
+				flushRows();
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			flushRows();
+		}
+		finally {
+			this.writer.close();
+		}
+	}
+	
+	private void flushRows() throws IOException {
+		int length = this.rows.length();
+		
+		if (length > this.chars.length) {
+			this.chars = new char[length];
+		}
+		
+		this.rows.getChars(0, length, this.chars, 0);
+		this.writer.write(this.chars, 0, length);
+		this.rows.setLength(0);
+	}
+}
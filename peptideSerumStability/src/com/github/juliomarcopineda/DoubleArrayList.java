@@ -0,0 +1,83 @@
+package com.github.juliomarcopineda;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * DoubleArrayList is a list of doubles kept in a primitive array, so that a long list of mass spec data does not hold one Double object per value.
+ * The values are only boxed when they are read through the List interface.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public class DoubleArrayList extends AbstractList<Double> implements RandomAccess {
+	private double[] values;
+	private int size;
+	
+	public DoubleArrayList() {
+		this.values = new double[16];
+	}
+	
+	@Override
+	public Double get(int index) {
+		return getDouble(index);
+	}
+	
+	public double getDouble(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		
+		return values[index];
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean add(Double value) {
+		addDouble(value);
+		return true;
+	}
+	
+	public void addDouble(double value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		
+		values[size++] = value;
+		modCount++;
+	}
+	
+	/**
+	 * Returns a copy of the values as an array.
+	 * 
+	 * @return
+	 */
+	public double[] toDoubleArray() {
+		return Arrays.copyOf(values, size);
+	}
+	
+	/**
+	 * Returns the values of the list as an array, without boxing them if the list is a DoubleArrayList.
+	 * 
+	 * @param values
+	 * @return
+	 */
+	public static double[] toDoubleArray(List<Double> values) {
+		if (values instanceof DoubleArrayList) {
+			return ((DoubleArrayList) values).toDoubleArray();
+		}
+		
+		double[] array = new double[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		
+		return array;
+	}
+}
@@ -0,0 +1,235 @@
+package com.github.juliomarcopineda;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ElementalComposition is the number of atoms of carbon, hydrogen, nitrogen, oxygen and sulfur of a molecule. It is immutable.
+ *
+ * The compositions of the amino acids are read from compositions.csv, in the same free amino acid form as the molecular weights of weights.csv.
+ * Symbols without a composition, like linkers, are estimated with averagine: the average composition of a residue of a protein, scaled to the
+ * weight of the symbol. So are the symbols whose composition does not weigh what the residue registry says, see forSymbol(char, double).
+ *
+ * @author Julio Pineda
+ *
+ */
+public final class ElementalComposition {
+	public static final ElementalComposition EMPTY = new ElementalComposition(0, 0, 0, 0, 0);
+	public static final ElementalComposition WATER = new ElementalComposition(0, 2, 0, 1, 0);
+	
+	private static final int SYMBOLS = 128;
+	
+	// Averagine, the average residue of a protein (Senko et al. 1995), and its weight
+	private static final double AVERAGINE_WEIGHT = 111.1254;
+	private static final double[] AVERAGINE = { 4.9384, 7.7583, 1.3577, 1.4773, 0.0417 };
+	
+	// Average atomic weights of carbon, hydrogen, nitrogen, oxygen and sulfur
+	private static final double[] ATOMIC_WEIGHTS = { 12.011, 1.008, 14.007, 15.999, 32.06 };
+	
+	// Largest difference between the weight of a composition and the weight of its symbol, the weights of weights.csv having two decimals
+	private static final double WEIGHT_TOLERANCE = 0.05;
+	
+	private final int carbon;
+	private final int hydrogen;
+	private final int nitrogen;
+	private final int oxygen;
+	private final int sulfur;
+	
+	public ElementalComposition(int carbon, int hydrogen, int nitrogen, int oxygen, int sulfur) {
+		if (carbon < 0 || hydrogen < 0 || nitrogen < 0 || oxygen < 0 || sulfur < 0) {
+			throw new IllegalArgumentException("The number of atoms of an element cannot be negative");
+		}
+		
+		this.carbon = carbon;
+		this.hydrogen = hydrogen;
+		this.nitrogen = nitrogen;
+		this.oxygen = oxygen;
+		this.sulfur = sulfur;
+	}
+	
+	/**
+	 * Returns the composition of the amino acid of the symbol, or null if compositions.csv has no composition for the symbol.
+	 * 
+	 * @param symbol
+	 * @return
+	 */
+	public static ElementalComposition forSymbol(char symbol) {
+		return symbol < SYMBOLS ? DefaultCompositions.INSTANCE[symbol] : null;
+	}
+	
+	/**
+	 * Returns the composition of the amino acid of the symbol if it weighs the given weight of the symbol, or else the averagine estimate of the
+	 * weight. A composition that does not agree with the weight would predict the isotopes of another molecule than the one that was matched.
+	 * 
+	 * @param symbol
+	 * @param weight
+	 * @return
+	 */
+	public static ElementalComposition forSymbol(char symbol, double weight) {
+		ElementalComposition composition = forSymbol(symbol);
+		
+		if (composition == null || Math.abs(composition.getAverageWeight() - weight) > WEIGHT_TOLERANCE) {
+			return averagine(weight);
+		}
+		
+		return composition;
+	}
+	
+	/**
+	 * Returns the averagine estimate of the composition of a molecule of the given weight.
+	 * 
+	 * @param weight
+	 * @return
+	 */
+	public static ElementalComposition averagine(double weight) {
+		double residues = Math.max(0, weight) / AVERAGINE_WEIGHT;
+		
+		return new ElementalComposition((int) Math.round(AVERAGINE[0] * residues), (int) Math.round(AVERAGINE[1] * residues),
+				(int) Math.round(AVERAGINE[2] * residues), (int) Math.round(AVERAGINE[3] * residues), (int) Math.round(AVERAGINE[4] * residues));
+	}
+	
+	/**
+	 * Returns the molecular weight of the composition from the average atomic weights of its elements.
+	 * 
+	 * @return
+	 */
+	public double getAverageWeight() {
+		return carbon * ATOMIC_WEIGHTS[0] + hydrogen * ATOMIC_WEIGHTS[1] + nitrogen * ATOMIC_WEIGHTS[2] + oxygen * ATOMIC_WEIGHTS[3]
+				+ sulfur * ATOMIC_WEIGHTS[4];
+	}
+	
+	public int getCarbon() {
+		return carbon;
+	}
+	
+	public int getHydrogen() {
+		return hydrogen;
+	}
+	
+	public int getNitrogen() {
+		return nitrogen;
+	}
+	
+	public int getOxygen() {
+		return oxygen;
+	}
+	
+	public int getSulfur() {
+		return sulfur;
+	}
+	
+	/**
+	 * Returns the composition of this molecule together with the other molecule.
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public ElementalComposition plus(ElementalComposition other) {
+		return new ElementalComposition(carbon + other.carbon, hydrogen + other.hydrogen, nitrogen + other.nitrogen, oxygen + other.oxygen,
+				sulfur + other.sulfur);
+	}
+	
+	/**
+	 * Returns the composition of this molecule without the other molecule times the given count, where no element goes below zero. Used to remove
+	 * the water lost by every bond between residues.
+	 * 
+	 * @param other
+	 * @param count
+	 * @return
+	 */
+	public ElementalComposition minus(ElementalComposition other, int count) {
+		return new ElementalComposition(Math.max(0, carbon - other.carbon * count), Math.max(0, hydrogen - other.hydrogen * count),
+				Math.max(0, nitrogen - other.nitrogen * count), Math.max(0, oxygen - other.oxygen * count), Math.max(0, sulfur - other.sulfur * count));
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		
+		if (!(obj instanceof ElementalComposition)) {
+			return false;
+		}
+		
+		ElementalComposition other = (ElementalComposition) obj;
+		return carbon == other.carbon && hydrogen == other.hydrogen && nitrogen == other.nitrogen && oxygen == other.oxygen && sulfur == other.sulfur;
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = carbon;
+		hash = 31 * hash + hydrogen;
+		hash = 31 * hash + nitrogen;
+		hash = 31 * hash + oxygen;
+		hash = 31 * hash + sulfur;
+		
+		return hash;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder formula = new StringBuilder();
+		appendElement(formula, "C", carbon);
+		appendElement(formula, "H", hydrogen);
+		appendElement(formula, "N", nitrogen);
+		appendElement(formula, "O", oxygen);
+		appendElement(formula, "S", sulfur);
+		
+		return formula.toString();
+	}
+	
+	private static void appendElement(StringBuilder formula, String element, int count) {
+		if (count > 0) {
+			formula.append(element);
+			
+			if (count > 1) {
+				formula.append(count);
+			}
+		}
+	}
+	
+	/**
+	 * Holder of the compositions of compositions.csv, so that the file is read once, the first time a composition is requested.
+	 */
+	private static class DefaultCompositions {
+		private static final ElementalComposition[] INSTANCE = readDefault();
+		
+		private static ElementalComposition[] readDefault() {
+			ElementalComposition[] compositions = new ElementalComposition[SYMBOLS];
+			
+			InputStream compositionsStream = ElementalComposition.class.getResourceAsStream("/compositions.csv");
+			if (compositionsStream == null) {
+				throw new IllegalStateException("compositions.csv is missing from the classpath");
+			}
+			
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(compositionsStream, StandardCharsets.UTF_8))) {
+				String line = reader.readLine(); // ignore header
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					
+					if (line.isEmpty()) {
+						continue;
+					}
+					
+					String[] split = line.split(",");
+					if (split.length != 6 || split[0].length() != 1 || split[0].charAt(0) >= SYMBOLS) {
+						throw new IllegalArgumentException("Invalid line of compositions, expected an ASCII symbol and five counts: " + line);
+					}
+					
+					compositions[split[0].charAt(0)] = new ElementalComposition(Integer.parseInt(split[1].trim()), Integer.parseInt(split[2].trim()),
+							Integer.parseInt(split[3].trim()), Integer.parseInt(split[4].trim()), Integer.parseInt(split[5].trim()));
+				}
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			
+			return compositions;
+		}
+	}
+}
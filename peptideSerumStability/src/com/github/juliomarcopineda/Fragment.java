@@ -0,0 +1,55 @@
+package com.github.juliomarcopineda;
+
+/**
+ * Fragment is a fragment of a peptide found by FragmentAnalyzer.streamFragments(), together with its theoretical molecular weight.
+ *
+ * The fragment is described by its tokens: the nodes of the graph of the peptide that make the fragment, in order, with -1 where its String
+ * representation has a "#". Nodes past the end of the sequence are linkers. The String representation is only built by toString().
+ *
+ * The fingerprint of the fragment is the same for every fragment made of the same nodes and linkers, so duplicates can be dropped without
+ * comparing Strings.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class Fragment {
+	private FragmentAnalyzer analyzer;
+	private byte kind;
+	private int[] tokens;
+	private double weight;
+	private long fingerprint;
+	
+	public Fragment(FragmentAnalyzer analyzer, byte kind, int[] tokens, double weight, long fingerprint) {
+		this.analyzer = analyzer;
+		this.kind = kind;
+		this.tokens = tokens;
+		this.weight = weight;
+		this.fingerprint = fingerprint;
+	}
+	
+	/**
+	 * Returns FragmentTable.LINEAR, FragmentTable.BRANCHED, FragmentTable.CYCLIC or FragmentTable.CONNECTED.
+	 * 
+	 * @return
+	 */
+	public byte getKind() {
+		return kind;
+	}
+	
+	public int[] getTokens() {
+		return tokens.clone();
+	}
+	
+	public double getWeight() {
+		return weight;
+	}
+	
+	public long getFingerprint() {
+		return fingerprint;
+	}
+	
+	@Override
+	public String toString() {
+		return analyzer.getFragmentString(tokens);
+	}
+}
@@ -1,15 +1,23 @@
 package com.github.juliomarcopineda;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.github.juliomarcopineda.peptide.Peptide;
 import com.github.juliomarcopineda.peptide.PeptideType;
@@ -17,740 +25,2621 @@ import com.github.juliomarcopineda.peptide.PeptideType;
 /**
  * FragmentAnalyzer accepts a Peptide and determines all the possible fragments that can result from a peptide serum stability study. 
  * 
+ * Every phase of the analysis is counted and timed in the default AnalysisMetrics. The analyzers are quiet unless setVerbose(true) is called, in
+ * which case they print the progress of the search and the weighing of the fragments.
+ * 
  * @author Julio Pineda
  *
  */
 public class FragmentAnalyzer {
+	private static final int FORK_DEPTH = 16;
+	
+	// Paths and segments of up to this many nodes are weighed by adding their node weights one at a time instead of from the prefix sums
+	private static final int DIRECT_SUM_LENGTH = 32;
+	
+	private static volatile boolean verbose;
+	
 	private Peptide peptide;
-	private Map<Character, Double> weights;
+	private ResidueMassRegistry residueMasses;
+	private double[] nodeWeights;
+	private double[] prefixWeights;
 	
-	private List<List<Integer>> fragments;
+	private FragmentStore fragments;
+	private FragmentTable fragmentTable;
 	private Map<String, Double> fragmentWeights;
+	private FragmentMassIndex massIndex;
+	private FragmentLibrary library;
+	private int[][] sizeBuckets; // positions in the mass index by number of residues, built on demand
+	
+	private double weightLimit = Double.POSITIVE_INFINITY;
 	
 	/**
-	 * Constructor that accepts a Peptide object.
+	 * Constructor that accepts a Peptide object. The weights of the amino acids and linkers are those of the default residue registry.
 	 * 
 	 * @param peptide
 	 */
 	public FragmentAnalyzer(Peptide peptide) {
-		this.peptide = peptide;
-		this.weights = createAminoAcideWeightMap();
-		this.fragments = new ArrayList<>();
+		this(peptide, ResidueMassRegistry.getDefault());
 	}
 	
-	public FragmentAnalyzer() {
-		this.weights = createAminoAcideWeightMap();
+	/**
+	 * Constructor that accepts a Peptide object and the registry of the weights of its amino acids and linkers.
+	 * 
+	 * @param peptide
+	 * @param residueMasses
+	 */
+	public FragmentAnalyzer(Peptide peptide, ResidueMassRegistry residueMasses) {
+		this.peptide = peptide;
+		this.residueMasses = residueMasses;
+		this.fragments = new FragmentStore();
 	}
 	
-	public Map<String, Double> getFragmentWeights() {
-		return fragmentWeights;
+	public FragmentAnalyzer() {
+		this.residueMasses = ResidueMassRegistry.getDefault();
 	}
 	
-	public void setFragmentWeights(Map<String, Double> fragmentWeights) {
-		this.fragmentWeights = fragmentWeights;
+	/**
+	 * Sets whether the analyzers print their progress. This applies to every analyzer of the process, including the ones created by a
+	 * FragmentLibraryCache or an AnalyzerCache.
+	 * 
+	 * @param verbose
+	 */
+	public static void setVerbose(boolean verbose) {
+		FragmentAnalyzer.verbose = verbose;
 	}
 	
-	public List<List<Integer>> getFragments() {
-		return fragments;
+	public static boolean isVerbose() {
+		return verbose;
 	}
 	
-	public void setFragments(List<List<Integer>> fragments) {
-		this.fragments = fragments;
+	private static void log(String message) {
+		if (verbose) {
+			System.out.println(message);
+		}
 	}
 	
 	/**
-	 * Given the mass spec data and a threshold, returns all the fragments that are withing this threshold.
+	 * Returns the map of <fragment, weight> of all the fragments. The map is built from the fragment table (or the loaded library) the first time
+	 * it is requested, which creates the String representation of every fragment. Prefer suggestFragments or matchFragments, which only build the
+	 * String representation of the fragments they return.
 	 * 
-	 * @param massSpecData
-	 * @param threshold
 	 * @return
 	 */
-	public Map<String, Double> suggestFragments(double massSpecData, double threshold) {
-		Map<String, Double> suggestedFragments = new HashMap<>();
-		
-		for (Map.Entry<String, Double> entry : this.fragmentWeights.entrySet()) {
-			String fragment = entry.getKey();
-			double theoreticalWeight = entry.getValue();
+	public Map<String, Double> getFragmentWeights() {
+		if (this.fragmentWeights == null && this.fragmentTable != null) {
+			Map<String, Double> fragmentWeights = new HashMap<>();
+			
+			for (int fragment = 0; fragment < this.fragmentTable.size(); fragment++) {
+				fragmentWeights.put(getFragmentString(fragment), this.fragmentTable.getMass(fragment));
+			}
+			
+			this.fragmentWeights = fragmentWeights;
+		}
+		else if (this.fragmentWeights == null && this.library != null) {
+			Map<String, Double> fragmentWeights = new HashMap<>();
 			
-			double diff = Math.abs(massSpecData - theoreticalWeight);
-			if (diff <= threshold) {
-				suggestedFragments.put(fragment, theoreticalWeight);
+			for (int fragment = 0; fragment < this.library.size(); fragment++) {
+				fragmentWeights.put(getFragmentString(fragment), this.library.getMass(fragment));
 			}
+			
+			this.fragmentWeights = fragmentWeights;
 		}
 		
-		return suggestedFragments;
+		return fragmentWeights;
 	}
 	
 	/**
-	 * Populates the map of fragment (represented by String) and its theoretical molecular weight.
+	 * Returns the map of <fragment, weight> of the fragments with the given number of residues, in increasing order of weight. The residues of a
+	 * fragment are the symbols of its String representation, so linkers are counted and "#" is not.
 	 * 
+	 * The fragments are grouped by their number of residues the first time this method is called, so every later call only visits the fragments of
+	 * the requested size and only builds their String representation.
+	 * 
+	 * @param size
 	 * @return
 	 */
-	public FragmentAnalyzer measureAllFragmentWeights() {
-		System.out.println("Calculating molecular weights of all fragments...");
-		
-		Map<String, Double> fragmentWeights = new HashMap<>();
-		PeptideType type = this.peptide.getType();
-		
-		for (List<Integer> fragmentIndex : this.fragments) {
-			String fragment = getPeptideStringRepresentation(fragmentIndex, type);
-			double weight = calculateFragmentWeight(fragment);
-			
-			fragmentWeights.put(fragment, weight);
+	public Map<String, Double> getFragmentsOfSize(int size) {
+		if (this.sizeBuckets == null) {
+			this.sizeBuckets = createSizeBuckets();
 		}
 		
-		if (!type.equals(PeptideType.LINEAR)) {
-			findBranchedAndCyclicFragments(fragmentWeights);
+		Map<String, Double> fragmentsOfSize = new LinkedHashMap<>();
+		if (size < 0 || size >= this.sizeBuckets.length) {
+			return fragmentsOfSize;
 		}
 		
-		this.fragmentWeights = fragmentWeights;
+		FragmentMassIndex index = this.massIndex;
+		for (int i : this.sizeBuckets[size]) {
+			fragmentsOfSize.putIfAbsent(getFragmentString(index.getFragment(i)), index.getMass(i));
+		}
 		
-		System.out.println("Done!");
-		return this;
+		return fragmentsOfSize;
 	}
 	
 	/**
-	 * Determines all the posisble branched fragments of a Peptide and populated the map of <fragment, weight>. 
-	 * Note that the current implementation can only handle a cyclic peptide with only one cycle.
+	 * Groups the positions of the mass index by the number of residues of their fragments. The positions of every group stay in increasing order,
+	 * so the fragments of a group are in increasing order of weight.
 	 * 
-	 * @param fragmentWeights
+	 * @return
 	 */
-	private void findBranchedAndCyclicFragments(Map<String, Double> fragmentWeights) {
-		PeptideType type = this.peptide.getType();
-		List<Integer> connections = this.peptide.getConnections();
-		String peptideSequence = this.peptide.getSequence();
-		
-		Map<Integer, List<List<Integer>>> connectionInFragments = findConnectionsInFragments(connections);
+	private int[][] createSizeBuckets() {
+		FragmentMassIndex index = this.massIndex;
 		
-		int connection1 = connections.get(0);
-		int connection2 = connections.get(1);
-		
-		List<List<Integer>> fragmentsWith1 = connectionInFragments.get(connection1);
-		List<List<Integer>> fragmentsWith2 = connectionInFragments.get(connection2);
-		
-		// Stop finding branched fragments if there are no fragments with connections
-		if (fragmentsWith1 == null || fragmentsWith2 == null || fragmentsWith1.isEmpty() || fragmentsWith2.isEmpty()) {
-			return;
-		}
-		
-		// Start building branched fragment using linear fragment with the first connection
-		for (List<Integer> fragmentWith1 : fragmentsWith1) {
-			List<Integer> afterConnection1 = fragmentWith1.subList(fragmentWith1.indexOf(connection1), fragmentWith1.size());
-			
-			StringBuilder sb1 = new StringBuilder();
-			sb1.append(getPeptideStringRepresentation(fragmentWith1, type));
-			
-			// Append the linkers to the fragment (DFBP or S or SS) to form branched fragments
-			switch (type) {
-				case CUSTOM:
-					// Skip if the fragment contains CUSTOM
-					if (fragmentWith1.contains(peptideSequence.length())) {
-						continue;
-					}
-					
-					// Only append CUSTOM if the connection is not in the beginning
-					if (fragmentWith1.get(0) != connection1) {
-						sb1.append("#%");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-					}
-					
-					break;
-				case DFBP:
-					// Skip if the fragment contains DFBP
-					if (fragmentWith1.contains(peptideSequence.length())) {
-						continue;
-					}
-					
-					// Only append DFBP if the connection is not in the beginning
-					if (fragmentWith1.get(0) != connection1) {
-						sb1.append("#2");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-					}
-					
-					break;
-				case DISULFIDE:
-					// Skip if the fragment contains S or SS
-					if (fragmentWith1.contains(peptideSequence.length()) || fragmentWith1.contains(peptideSequence.length() + 1)) {
-						continue;
-					}
-					
-					// Only append S then SS if the connection is not in the beginning
-					if (fragmentWith1.get(0) != connection1) {
-						sb1.append("#S");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-						sb1.append("S");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-					}
-					
-					break;
-				case AMIDE:
-					break;
-				case LINEAR:
-					break;
-			}
-			
-			// Start building branched fragments using the linear fragment with the second connection
-			for (List<Integer> fragmentWith2 : fragmentsWith2) {
-				
-				// Skip if appending two fragments would form a linear peptide
-				if (isLinear(fragmentWith1, connection1, fragmentWith2, connection2)) {
-					continue;
-				}
-				
-				List<Integer> beforeConnection2 = fragmentWith2.subList(0, fragmentWith2.indexOf(connection2) + 1);
-				
-				StringBuilder sb2 = new StringBuilder();
-				sb2.append(getPeptideStringRepresentation(fragmentWith1, type));
-				if (isValidBranchedFragment(afterConnection1, beforeConnection2)) {
-					switch (type) {
-						case CUSTOM:
-							// Skip if the fragment contains CUSTOM
-							if (fragmentWith2.contains(peptideSequence.length())) {
-								continue;
-							}
-							
-							sb2.append("#%#" + getPeptideStringRepresentation(fragmentWith2, type));
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case DFBP:
-							// Skip if the fragment contains DFBP
-							if (fragmentWith2.contains(peptideSequence.length())) {
-								continue;
-							}
-							
-							sb2.append("#2#" + getPeptideStringRepresentation(fragmentWith2, type));
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case DISULFIDE:
-							// Skip if the fragment contains S or SS
-							if (fragmentWith2.contains(peptideSequence.length()) || fragmentWith2.contains(peptideSequence.length() + 1)) {
-								continue;
-							}
-							
-							sb2.append("#SS#" + getPeptideStringRepresentation(fragmentWith2, type));
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case AMIDE:
-							sb2.append("#" + getPeptideStringRepresentation(fragmentWith2, type));
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case LINEAR:
-							break;
-					}
-				}
-			}
+		int[] sizes = new int[index.size()];
+		int maxSize = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = countResidues(getFragmentTokens(index.getFragment(i)));
+			maxSize = Math.max(maxSize, sizes[i]);
 		}
 		
-		// Start forming branched fragments starting with fragments with the second connection
-		for (List<Integer> fragmentWith2 : fragmentsWith2) {
-			List<Integer> beforeConnection2 = fragmentWith2.subList(0, fragmentWith2.indexOf(connection2) + 1);
-			
-			StringBuilder sb1 = new StringBuilder();
-			sb1.append(getPeptideStringRepresentation(fragmentWith2, type));
-			
-			// Append the linkers (DFBP or S or SS) to form possible branched fragments
-			switch (type) {
-				case CUSTOM:
-					// Skip if linear fragment contains CUSTOM
-					if (fragmentWith2.contains(peptideSequence.length())) {
-						continue;
-					}
-					
-					// Only append CUSTOM if connection is not in the end of the fragment
-					if (fragmentWith2.get(fragmentWith2.size() - 1) != connection2) {
-						sb1.append("#%");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-					}
-					
-					break;
-				case DFBP:
-					// Skip if linear fragment contains DFBP
-					if (fragmentWith2.contains(peptideSequence.length())) {
-						continue;
-					}
-					
-					// Only append DFBP if connection is not in the end of the fragment
-					if (fragmentWith2.get(fragmentWith2.size() - 1) != connection2) {
-						sb1.append("#2");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-					}
-					
-					break;
-				case DISULFIDE:
-					// Skip if linear fragment contains S or SS
-					if (fragmentWith2.contains(peptideSequence.length()) || fragmentWith2.contains(peptideSequence.length() + 1)) {
-						continue;
-					}
-					
-					// Only append S then SS if connection is not in the end of the fragment
-					if (fragmentWith2.get(fragmentWith2.size() - 1) != connection2) {
-						sb1.append("#S");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-						sb1.append("S");
-						fragmentWeights.put(sb1.toString(), calculateBranchedFragmentWeight(sb1.toString()));
-					}
-					
-					break;
-				case AMIDE:
-					break;
-				case LINEAR:
-					break;
-			}
-			
-			// Start building branched fragments using linear fragments with the first connection
-			for (List<Integer> fragmentWith1 : fragmentsWith1) {
-				
-				// Skip if appending two fragments would form a linear peptide
-				if (isLinear(fragmentWith1, connection1, fragmentWith2, connection2)) {
-					continue;
-				}
-				
-				List<Integer> afterConnection1 = fragmentWith1.subList(fragmentWith1.indexOf(connection1), fragmentWith1.size());
-				
-				StringBuilder sb2 = new StringBuilder();
-				sb2.append(getPeptideStringRepresentation(fragmentWith1, type));
-				if (isValidBranchedFragment(afterConnection1, beforeConnection2)) {
-					switch (type) {
-						case CUSTOM:
-							// Skip if fragment contains CUSTOM
-							if (fragmentWith1.contains(peptideSequence.length())) {
-								continue;
-							}
-							
-							sb2.append("#%#" + getPeptideStringRepresentation(fragmentWith1, type));
-							
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case DFBP:
-							// Skip if fragment contains DFBP
-							if (fragmentWith1.contains(peptideSequence.length())) {
-								continue;
-							}
-							
-							sb2.append("#2#" + getPeptideStringRepresentation(fragmentWith1, type));
-							
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case DISULFIDE:
-							// Skip if fragment contains S or SS
-							if (fragmentWith1.contains(peptideSequence.length()) || fragmentWith1.contains(peptideSequence.length() + 1)) {
-								continue;
-							}
-							
-							sb2.append("#SS#" + getPeptideStringRepresentation(fragmentWith1, type));
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case AMIDE:
-							sb2.append("#" + getPeptideStringRepresentation(fragmentWith1, type));
-							fragmentWeights.put(sb2.toString(), calculateBranchedFragmentWeight(sb2.toString()));
-							break;
-						case LINEAR:
-							break;
-					}
-				}
-			}
+		int[] bucketSizes = new int[maxSize + 1];
+		for (int size : sizes) {
+			bucketSizes[size]++;
 		}
 		
-		List<List<Integer>> possibleCyclicFragments = connectionInFragments.get(-1);
-		
-		// Stop finding cyclic fragments if there are no possible cyclic fragments
-		if (possibleCyclicFragments == null || possibleCyclicFragments.isEmpty()) {
-			return;
+		int[][] buckets = new int[maxSize + 1][];
+		for (int size = 0; size <= maxSize; size++) {
+			buckets[size] = new int[bucketSizes[size]];
+			bucketSizes[size] = 0;
 		}
 		
-		for (List<Integer> possibleCyclicFragmentIndex : possibleCyclicFragments) {
-			if (isCyclicFragment(possibleCyclicFragmentIndex, connections)) {
-				StringBuilder sb = new StringBuilder();
-				sb.append("#" + getPeptideStringRepresentation(possibleCyclicFragmentIndex, type) + "#");
-				fragmentWeights.put(sb.toString(), calculateCyclicFragmentWeight(sb.toString(), type));
-			}
+		for (int i = 0; i < sizes.length; i++) {
+			buckets[sizes[i]][bucketSizes[sizes[i]]++] = i;
 		}
 		
+		return buckets;
 	}
 	
 	/**
-	 * Determines if appending fragment1 and fragment2 results in a linear peptide.
+	 * Returns the number of symbols of the String representation of a fragment given its tokens. Linkers of an AMIDE or LINEAR peptide have no
+	 * symbol.
 	 * 
-	 * @param fragment1
-	 * @param connection1
-	 * @param fragment2
-	 * @param connection2
+	 * @param tokens
 	 * @return
 	 */
-	private boolean isLinear(List<Integer> fragment1, int connection1, List<Integer> fragment2, int connection2) {
-		if (fragment1.get(0) == connection1 && fragment2.get(fragment2.size() - 1) == connection2) {
-			return true;
-		}
-		else if (fragment1.get(fragment1.size() - 1) == connection1 && fragment2.get(0) == connection2) {
-			return true;
-		}
-		else {
-			return false;
+	private int countResidues(int[] tokens) {
+		int linkerIndex = this.peptide.getSequence()
+			.length();
+		PeptideType type = this.peptide.getType();
+		boolean hasLinkerSymbol = type == PeptideType.CUSTOM || type == PeptideType.DFBP || type == PeptideType.DISULFIDE;
+		
+		int residues = 0;
+		for (int token : tokens) {
+			if (token >= 0 && (token < linkerIndex || hasLinkerSymbol)) {
+				residues++;
+			}
 		}
+		
+		return residues;
+	}
+	
+	public ResidueMassRegistry getResidueMasses() {
+		return residueMasses;
+	}
+	
+	public FragmentTable getFragmentTable() {
+		return fragmentTable;
+	}
+	
+	public FragmentMassIndex getMassIndex() {
+		return massIndex;
+	}
+	
+	public FragmentStore getFragmentStore() {
+		return fragments;
 	}
 	
 	/**
-	 * Given the amino acids after the first connection and the amino acids before a connection, determines if the branched fragments is truly valid.
-	 * A branched fragment is only valid if the two inputs do not share any elements.
-	 * 
-	 * Returns true if the branched fragments is valid.
+	 * Returns the fragments of the mass index, lightest first, as a library that can be saved and loaded again with loadLibrary. Must be called
+	 * after measureAllFragmentWeights() or loadLibrary.
 	 * 
-	 * @param afterConnection1
-	 * @param beforeConnection2
 	 * @return
 	 */
-	private boolean isValidBranchedFragment(List<Integer> afterConnection1, List<Integer> beforeConnection2) {
-		int afterConnection1Size = afterConnection1.size();
-		int beforeConnection2Size = beforeConnection2.size();
+	public ArrayFragmentLibrary createLibrary() {
+		FragmentMassIndex index = this.massIndex;
+		int size = index.size();
 		
-		if (beforeConnection2Size < afterConnection1Size) {
-			List<Integer> difference = new ArrayList<>(afterConnection1);
-			difference.removeAll(beforeConnection2);
+		double[] masses = new double[size];
+		int[] offsets = new int[size + 1];
+		int[] tokens = new int[Math.max(16, size * 4)];
+		
+		for (int i = 0; i < size; i++) {
+			int[] fragmentTokens = getFragmentTokens(index.getFragment(i));
 			
-			if (difference.size() < afterConnection1Size) {
-				return false;
+			if (offsets[i] + fragmentTokens.length > tokens.length) {
+				tokens = Arrays.copyOf(tokens, Math.max(tokens.length * 2, offsets[i] + fragmentTokens.length));
 			}
-		}
-		else {
-			List<Integer> difference = new ArrayList<>(beforeConnection2);
-			difference.removeAll(afterConnection1);
 			
-			if (difference.size() < beforeConnection2Size) {
-				return false;
-			}
+			System.arraycopy(fragmentTokens, 0, tokens, offsets[i], fragmentTokens.length);
+			masses[i] = index.getMass(i);
+			offsets[i + 1] = offsets[i] + fragmentTokens.length;
 		}
 		
-		return true;
+		return new ArrayFragmentLibrary(masses, offsets, Arrays.copyOf(tokens, offsets[size]));
 	}
 	
 	/**
-	 * Determines if a possible cyclic fragment is truly a cyclic fragment.
+	 * Uses the fragments of a library created by createLibrary for the same peptide instead of finding and weighing them. The positions of the
+	 * fragments are then their positions in the library, and there is no fragment table. A MappedFragmentLibrary is searched directly in its file.
 	 * 
-	 * @param possibleCyclicFragmentIndex
-	 * @param connections
+	 * @param library
 	 * @return
 	 */
-	private boolean isCyclicFragment(List<Integer> possibleCyclicFragmentIndex, List<Integer> connections) {
-		
-		for (int connection : connections) {
-			int index = possibleCyclicFragmentIndex.indexOf(connection);
-			
-			if (index != connection) {
-				return false;
-			}
-		}
-		
-		String peptideSequence = peptide.getSequence();
-		if (possibleCyclicFragmentIndex.contains(peptideSequence.length()) || possibleCyclicFragmentIndex.contains(peptideSequence.length() + 1)) {
-			return false;
-		}
+	public FragmentAnalyzer loadLibrary(FragmentLibrary library) {
+		this.library = library;
+		this.fragmentTable = null;
+		this.fragmentWeights = null;
+		this.sizeBuckets = null;
+		this.massIndex = library.createMassIndex();
 		
-		return true;
+		return this;
 	}
 	
 	/**
-	 * Given the String representation of a branched fragment, calculates the molecular weight of this branched fragment.
+	 * Returns a read-only view of the fragments as lists of node indices. Every fragment is converted into a list when it is accessed, so prefer
+	 * getFragmentStore() for anything but small peptides.
 	 * 
-	 * @param branchedFragment
 	 * @return
 	 */
-	private double calculateBranchedFragmentWeight(String branchedFragment) {
-		double sum = 0;
-		
-		String[] split = branchedFragment.split("#");
-		for (String fragment : split) {
-			double weight = calculateFragmentWeight(fragment);
-			sum += weight;
-		}
+	public List<List<Integer>> getFragments() {
+		return fragments.asList();
+	}
+	
+	/**
+	 * Replaces the fragments with the given lists of node indices.
+	 * 
+	 * @param fragments
+	 */
+	public void setFragments(List<List<Integer>> fragments) {
+		FragmentStore store = new FragmentStore();
 		
-		if (!this.peptide.getType()
-			.equals(PeptideType.AMIDE)) {
-			sum = sum - (18.0 * (split.length - 1));
+		for (List<Integer> fragment : fragments) {
+			store.add(fragment.stream()
+				.mapToInt(Integer::intValue)
+				.toArray(), fragment.size());
 		}
 		
-		return sum;
+		this.fragments = store;
 	}
 	
 	/**
-	 * Caluculates the molecular weights of cyclic fragments given its string representation and the peptide type.
+	 * Limits the search to the fragments that can match the given mass spec data. The walks of findAllFragments and streamFragments stop as soon as
+	 * a fragment is heavier than the largest mass spec data plus the threshold, and so do the branched fragments built from the linear fragments.
+	 * Fragments that are not searched could never be suggested for the mass spec data, so matchFragments returns the same matches.
 	 * 
-	 * @param cyclicFragment
-	 * @param type
+	 * @param massSpecData
+	 * @param threshold
 	 * @return
 	 */
-	private double calculateCyclicFragmentWeight(String cyclicFragment, PeptideType type) {
-		double sum = 0;
-		
-		String[] split = cyclicFragment.split("#");
-		for (String fragment : split) {
-			double weight = calculateFragmentWeight(fragment);
-			sum += weight;
-		}
-		
-		switch (type) {
-			case CUSTOM:
-				sum = sum + this.weights.get('%') - (18.0 * 2);
-				break;
-			case DFBP:
-				sum = sum + this.weights.get('2') - (18.0 * 2);
-				break;
-			case DISULFIDE:
-				sum = sum + (this.weights.get('S') * 2 - 18.0) - (18.0 * 2);
-				break;
-			case AMIDE:
-				break;
-			case LINEAR:
-				break;
-			
+	public FragmentAnalyzer limitToMassSpecData(double[] massSpecData, double threshold) {
+		double maxMassSpecData = Double.NEGATIVE_INFINITY;
+		for (double data : massSpecData) {
+			maxMassSpecData = Math.max(maxMassSpecData, data);
 		}
 		
-		return sum;
+		this.weightLimit = maxMassSpecData + threshold;
+		return this;
 	}
 	
 	/**
-	 * Returns a map of <index of connection, list of fragments>. This is a convenient map where the key is the index where the connection is in a linear
-	 * fragment. If the key is -1, the list of linear fragments can be possible cyclic fragments.
+	 * Limits the search to the fragments that can match the given mass spec data in any ion form of the model, see limitToMassSpecData(double[],
+	 * double). The limit is the largest neutral molecular weight of the mass spec data in any ion form plus its tolerance.
 	 * 
-	 * @param connections
+	 * @param massSpecData
+	 * @param tolerance
+	 * @param ionModel
 	 * @return
 	 */
-	private Map<Integer, List<List<Integer>>> findConnectionsInFragments(List<Integer> connections) {
-		Map<Integer, List<List<Integer>>> connectionsInFragments = new HashMap<>();
-		
-		for (List<Integer> fragmentIndex : this.fragments) {
-			int index = determineConnectionInFragment(fragmentIndex, connections);
-			
-			if (!connectionsInFragments.containsKey(index)) {
-				List<List<Integer>> fragments = new ArrayList<>();
-				fragments.add(fragmentIndex);
-				connectionsInFragments.put(index, fragments);
-			}
-			else {
-				connectionsInFragments.get(index)
-					.add(fragmentIndex);
+	public FragmentAnalyzer limitToMassSpecData(double[] massSpecData, Tolerance tolerance, IonModel ionModel) {
+		double limit = Double.NEGATIVE_INFINITY;
+		for (double data : massSpecData) {
+			for (IonForm form : ionModel.getForms()) {
+				limit = Math.max(limit, form.toNeutralMass(data) + form.getCharge() * tolerance.getWidth(data));
 			}
 		}
 		
-		return connectionsInFragments;
+		this.weightLimit = limit;
+		return this;
 	}
 	
 	/**
-	 * Given a linear fragment and the connection points of a peptide, returns the index where the connection is in the linear fragment. Returns -1 
-	 * if the linear fragments has 2 connection fragments (possible cyclic fragment).
+	 * Given the mass spec data and a threshold, returns all the fragments that are withing this threshold.
 	 * 
-	 * @param fragmentIndex
-	 * @param connections
+	 * The fragments are looked up in the sorted mass index, so only the fragments within the threshold are visited and turned into Strings.
+	 * 
+	 * @param massSpecData
+	 * @param threshold
 	 * @return
 	 */
-	private int determineConnectionInFragment(List<Integer> fragmentIndex, List<Integer> connections) {
-		int result = -2;
+	public Map<String, Double> suggestFragments(double massSpecData, double threshold) {
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
 		
-		List<Integer> connectionIndices = new ArrayList<>();
+		Map<String, Double> suggestedFragments = new HashMap<>();
 		
-		for (int index : fragmentIndex) {
-			if (connections.contains(index)) {
-				connectionIndices.add(index);
-			}
-		}
+		FragmentMassIndex index = this.massIndex;
+		int end = index.upperBound(massSpecData, threshold);
 		
-		if (connectionIndices.size() == 1) {
-			result = connectionIndices.get(0);
-		}
-		else if (connectionIndices.size() == 2) {
-			result = -1;
+		for (int i = index.lowerBound(massSpecData, threshold); i < end; i++) {
+			suggestedFragments.put(getFragmentString(index.getFragment(i)), index.getMass(i));
 		}
 		
-		return result;
+		metrics.stop(AnalysisMetrics.Phase.MATCH, startNanos);
+		metrics.addMatches(1, suggestedFragments.size());
+		
+		return suggestedFragments;
 	}
 	
 	/**
-	 * Given the peptide represented by its index and the peptide type, return the String representation 
-	 * of the peptide.
+	 * Given all the mass spec data of a peptide and a threshold, returns every pair of mass spec data and fragment that are within this threshold.
 	 * 
-	 * @param peptideIndex
-	 * @param type
+	 * The mass spec data is sorted and then swept against the sorted mass index in a single pass. The matches are returned in the order of the
+	 * given mass spec data and, for each mass spec data, in increasing order of the theoretical weight. Different fragments with the same String
+	 * representation are only returned once per mass spec data.
+	 * 
+	 * @param massSpecData
+	 * @param threshold
 	 * @return
 	 */
-	public String getPeptideStringRepresentation(List<Integer> peptideIndex, PeptideType type) {
-		String peptideSequence = this.peptide.getSequence();
+	public List<FragmentMatch> matchFragments(double[] massSpecData, double threshold) {
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
 		
-		StringBuilder stringBuilder = new StringBuilder();
+		List<FragmentMatch> matches = new ArrayList<>();
 		
-		for (int index : peptideIndex) {
-			if (index < peptideSequence.length()) {
-				stringBuilder.append(peptideSequence.charAt(index));
-			}
-			else {
-				switch (type) {
-					case CUSTOM:
-						stringBuilder.append("%");
-						break;
-					case DFBP:
-						stringBuilder.append("2");
-						break;
-					case DISULFIDE:
-						stringBuilder.append("S");
-						break;
-					case LINEAR:
-						break;
-					case AMIDE:
-						break;
+		double[] sortedMassSpecData = Arrays.copyOf(massSpecData, massSpecData.length);
+		Arrays.sort(sortedMassSpecData);
+		
+		int[] starts = new int[sortedMassSpecData.length];
+		int[] ends = new int[sortedMassSpecData.length];
+		
+		FragmentMassIndex index = this.massIndex;
+		index.matchAll(sortedMassSpecData, threshold, starts, ends);
+		
+		// Equal mass spec data have equal matches, so any position of the data in the sorted copy gives its range of fragments
+		Set<String> suggested = new HashSet<>();
+		for (double data : massSpecData) {
+			int position = Arrays.binarySearch(sortedMassSpecData, data);
+			
+			suggested.clear();
+			for (int i = starts[position]; i < ends[position]; i++) {
+				String fragment = getFragmentString(index.getFragment(i));
+				
+				if (suggested.add(fragment)) {
+					matches.add(new FragmentMatch(data, fragment, index.getMass(i)));
 				}
 			}
 		}
 		
-		return stringBuilder.toString();
+		metrics.stop(AnalysisMetrics.Phase.MATCH, startNanos);
+		metrics.addMatches(massSpecData.length, matches.size());
+		
+		return matches;
 	}
 	
 	/**
-	 * Given a fragment with its String representation, calculates its theoretical molecular weight.
+	 * Given all the mass spec data of a peptide, returns every pair of mass spec data and fragment that match in any ion form of the model.
 	 * 
-	 * @param fragment
+	 * Every mass spec data is converted into the neutral molecular weight it has in each ion form, and each of those weights is searched in the
+	 * mass index, so the fragments are never multiplied by the ion forms. The tolerance applies to the measured m/z, so the tolerance of the neutral
+	 * weight of an ion form is multiplied by its charge.
+	 * 
+	 * The matches are returned in the order of the given mass spec data, then in the order of the ion forms of the model and then in increasing
+	 * order of the theoretical weight. Different fragments with the same String representation are only returned once per mass spec data and ion
+	 * form.
+	 * 
+	 * @param massSpecData
+	 * @param tolerance
+	 * @param ionModel
 	 * @return
 	 */
-	private double calculateFragmentWeight(String fragment) {
-		double sum = 0;
+	public List<FragmentMatch> matchFragments(double[] massSpecData, Tolerance tolerance, IonModel ionModel) {
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
 		
-		for (int i = 0; i < fragment.length(); i++) {
-			char symbol = fragment.charAt(i);
-			sum += this.weights.get(symbol);
-		}
+		List<FragmentMatch> matches = new ArrayList<>();
+		List<IonForm> forms = ionModel.getForms();
 		
-		sum = sum - (18.0 * (fragment.length() - 1));
+		FragmentMassIndex index = this.massIndex;
 		
-		return sum;
-	}
-	
-	/**
-	 * Initiates the process of finding all the possible fragments of the peptide.
+		Set<String> suggested = new HashSet<>();
+		for (double data : massSpecData) {
+			double width = tolerance.getWidth(data);
+			
+			for (IonForm form : forms) {
+				double neutralMass = form.toNeutralMass(data);
+				double threshold = form.getCharge() * width;
+				
+				int end = index.upperBound(neutralMass, threshold);
+				
+				suggested.clear();
+				for (int i = index.lowerBound(neutralMass, threshold); i < end; i++) {
+					String fragment = getFragmentString(index.getFragment(i));
+					
+					if (suggested.add(fragment)) {
+						matches.add(new FragmentMatch(data, fragment, index.getMass(i), form));
+					}
+				}
+			}
+		}
+		
+		metrics.stop(AnalysisMetrics.Phase.MATCH, startNanos);
+		metrics.addMatches(massSpecData.length, matches.size());
+		
+		return matches;
+	}
+	
+	/**
+	 * Calculates the theoretical molecular weight of every fragment into the fragment table, then builds the sorted mass index used to suggest
+	 * fragments. Fragments are only identified by their indices at this point; their String representation is built on demand.
+	 * 
+	 * The same fragment is often found more than once, for example walked from both of its ends or built from the same pieces in either order.
+	 * Every fragment is identified by its fingerprint (see fingerprintFragment) and only added to the table the first time it is found, so
+	 * duplicates are dropped before they are weighed or turned into Strings.
+	 * 
+	 * @return
+	 */
+	public FragmentAnalyzer measureAllFragmentWeights() {
+		log("Calculating molecular weights of all fragments...");
+		
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
+		
+		FragmentTable fragmentTable = new FragmentTable();
+		PeptideType type = this.peptide.getType();
+		
+		this.nodeWeights = createNodeWeights();
+		this.prefixWeights = createPrefixWeights(this.nodeWeights);
+		
+		// The fragments of a peptide with more than one cycle are all in the fragment store already, open and, if they have a ring, closed
+		if (isMulticyclic()) {
+			int[][] neighbors = createNeighbors(createAdjacency(this.peptide.getGraph()));
+			int[] nodes = new int[this.prefixWeights.length];
+			
+			for (int fragmentIndex = 0; fragmentIndex < this.fragments.size(); fragmentIndex++) {
+				int length = this.fragments.length(fragmentIndex);
+				this.fragments.getNodes(fragmentIndex, nodes);
+				
+				fragmentTable.addConnected(fragmentIndex, calculateConnectedWeight(neighbors, nodes, length, false));
+				if (hasRing(neighbors, nodes, length)) {
+					fragmentTable.addCyclic(fragmentIndex, calculateConnectedWeight(neighbors, nodes, length, true));
+				}
+			}
+			
+			metrics.stop(AnalysisMetrics.Phase.WEIGH, startNanos);
+		}
+		else {
+			// Every linear fragment is weighed and fingerprinted, since it may also be a piece of the branched and cyclic fragments
+			double[] linearWeights = new double[this.fragments.size()];
+			long[] pieceFingerprints = new long[this.fragments.size()];
+			LongHashSet fingerprints = new LongHashSet();
+			
+			measureLinearFragments(fragmentTable, linearWeights, pieceFingerprints, fingerprints);
+			metrics.stop(AnalysisMetrics.Phase.WEIGH, startNanos);
+			
+			if (!type.equals(PeptideType.LINEAR)) {
+				startNanos = metrics.start();
+				findBranchedAndCyclicFragments(fragmentTable, linearWeights, pieceFingerprints, fingerprints);
+				metrics.stop(AnalysisMetrics.Phase.BRANCHED_CYCLIC, startNanos);
+			}
+		}
+		
+		metrics.addFragments(fragmentTable);
+		startNanos = metrics.start();
+		
+		this.fragmentTable = fragmentTable;
+		this.fragmentWeights = null;
+		this.sizeBuckets = null;
+		this.massIndex = new FragmentMassIndex(fragmentTable);
+		this.library = null;
+		
+		metrics.stop(AnalysisMetrics.Phase.INDEX, startNanos);
+		
+		log("Done!");
+		return this;
+	}
+	
+	/**
+	 * Given the position of a fragment in the fragment table, returns its String representation. Pieces of branched fragments are separated by "#",
+	 * and cyclic fragments start and end with "#". The pieces of a connected fragment are separated by "#" as well, and a closed connected fragment
+	 * starts and ends with "#" like a cyclic fragment, see createConnectedTokens.
+	 * 
+	 * If a library was loaded, the position is the position of the fragment in the library instead.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	public String getFragmentString(int fragment) {
+		if (this.library != null) {
+			return getFragmentString(this.library.getTokens(fragment));
+		}
+		
+		FragmentTable fragmentTable = this.fragmentTable;
+		PeptideType type = this.peptide.getType();
+		
+		StringBuilder stringBuilder = new StringBuilder();
+		
+		switch (fragmentTable.getKind(fragment)) {
+			case FragmentTable.LINEAR:
+				appendFragment(stringBuilder, fragmentTable.getFirst(fragment), type);
+				break;
+			case FragmentTable.BRANCHED:
+				appendFragment(stringBuilder, fragmentTable.getFirst(fragment), type);
+				
+				int linkers = fragmentTable.getLinkers(fragment);
+				if (linkers > 0) {
+					stringBuilder.append("#");
+					
+					for (int i = 0; i < linkers; i++) {
+						appendNode(stringBuilder, this.peptide.getSequence()
+							.length() + i, type);
+					}
+				}
+				
+				int second = fragmentTable.getSecond(fragment);
+				if (second != -1) {
+					stringBuilder.append("#");
+					appendFragment(stringBuilder, second, type);
+				}
+				
+				break;
+			case FragmentTable.CYCLIC:
+				if (isMulticyclic()) {
+					return getFragmentString(getFragmentTokens(fragment));
+				}
+				
+				stringBuilder.append("#");
+				appendFragment(stringBuilder, fragmentTable.getFirst(fragment), type);
+				stringBuilder.append("#");
+				break;
+			case FragmentTable.CONNECTED:
+				return getFragmentString(getFragmentTokens(fragment));
+		}
+		
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Given the tokens of a streamed fragment, returns its String representation. See Fragment.getTokens().
+	 * 
+	 * @param tokens
+	 * @return
+	 */
+	String getFragmentString(int[] tokens) {
+		PeptideType type = this.peptide.getType();
+		
+		StringBuilder stringBuilder = new StringBuilder();
+		for (int token : tokens) {
+			if (token == -1) {
+				stringBuilder.append("#");
+			}
+			else {
+				appendNode(stringBuilder, token, type);
+			}
+		}
+		
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Given the position of a fragment in the fragment table (or in the loaded library), returns its tokens.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	private int[] getFragmentTokens(int fragment) {
+		if (this.library != null) {
+			return this.library.getTokens(fragment);
+		}
+		
+		FragmentTable fragmentTable = this.fragmentTable;
+		byte kind = fragmentTable.getKind(fragment);
+		int first = fragmentTable.getFirst(fragment);
+		
+		// The fragments of a peptide with more than one cycle are connected fragments, open or closed
+		if (isMulticyclic()) {
+			int[] nodes = this.fragments.getNodes(first, new int[this.fragments.length(first)]);
+			
+			return createConnectedTokens(nodes, nodes.length, kind == FragmentTable.CYCLIC);
+		}
+		
+		return createTokens(this.fragments, kind, first, fragmentTable.getLinkers(fragment), fragmentTable.getSecond(fragment));
+	}
+	
+	/**
+	 * Returns the tokens of a linear, branched or cyclic fragment made of fragments of the fragment store: the nodes of its pieces, separated by -1
+	 * where the String representation has a "#".
+	 * 
+	 * @param fragments
+	 * @param kind
+	 * @param first
+	 * @param linkers
+	 * @param second
+	 * @return
+	 */
+	private int[] createTokens(FragmentStore fragments, byte kind, int first, int linkers, int second) {
+		int firstLength = fragments.length(first);
+		int secondLength = second == -1 ? 0 : fragments.length(second);
+		
+		int length = firstLength;
+		if (kind == FragmentTable.CYCLIC) {
+			length += 2;
+		}
+		else {
+			length += (linkers > 0 ? linkers + 1 : 0) + (second != -1 ? secondLength + 1 : 0);
+		}
+		
+		int[] tokens = new int[length];
+		int position = 0;
+		
+		if (kind == FragmentTable.CYCLIC) {
+			tokens[position++] = -1;
+		}
+		
+		for (int i = 0; i < firstLength; i++) {
+			tokens[position++] = fragments.get(first, i);
+		}
+		
+		if (kind == FragmentTable.CYCLIC) {
+			tokens[position++] = -1;
+		}
+		
+		if (linkers > 0) {
+			int linkerIndex = this.peptide.getSequence()
+				.length();
+			
+			tokens[position++] = -1;
+			for (int i = 0; i < linkers; i++) {
+				tokens[position++] = linkerIndex + i;
+			}
+		}
+		
+		if (second != -1) {
+			tokens[position++] = -1;
+			for (int i = 0; i < secondLength; i++) {
+				tokens[position++] = fragments.get(second, i);
+			}
+		}
+		
+		return tokens;
+	}
+	
+	/**
+	 * Returns the tokens of a connected fragment given its nodes in increasing order: its runs of consecutive amino acids, then its linkers, with a
+	 * -1 before every run and every linker but the first. The two S nodes of a disulfide bridge are a single linker. The tokens of a closed
+	 * fragment also start and end with -1, like the tokens of a cyclic fragment.
+	 * 
+	 * @param nodes
+	 * @param length
+	 * @param closed
+	 * @return
+	 */
+	private int[] createConnectedTokens(int[] nodes, int length, boolean closed) {
+		int[] tokens = new int[2 * length + 2];
+		int position = 0;
+		
+		if (closed) {
+			tokens[position++] = -1;
+		}
+		
+		for (int i = 0; i < length; i++) {
+			if (i > 0 && !isSamePiece(nodes[i - 1], nodes[i])) {
+				tokens[position++] = -1;
+			}
+			
+			tokens[position++] = nodes[i];
+		}
+		
+		if (closed) {
+			tokens[position++] = -1;
+		}
+		
+		return Arrays.copyOf(tokens, position);
+	}
+	
+	/**
+	 * Returns true if the node follows the previous node in the same piece of a connected fragment.
+	 * 
+	 * @param previous
+	 * @param node
+	 * @return
+	 */
+	private boolean isSamePiece(int previous, int node) {
+		int linkerIndex = this.peptide.getSequence()
+			.length();
+		
+		if (node < linkerIndex) {
+			return node == previous + 1;
+		}
+		else if (previous < linkerIndex) {
+			return false;
+		}
+		else if (this.peptide.getType()
+			.equals(PeptideType.DISULFIDE)) {
+			return (node - linkerIndex) / 2 == (previous - linkerIndex) / 2;
+		}
+		else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Weighs and fingerprints every linear fragment of the fragment store into the given arrays, and adds the linear fragments whose fingerprint is
+	 * not in the set of fingerprints yet to the fragment table.
+	 * 
+	 * Package-private, together with findBranchedAndCyclicFragments, so that the benchmarks can measure both steps of measureAllFragmentWeights on
+	 * their own.
+	 * 
+	 * @param fragmentTable
+	 * @param linearWeights
+	 * @param pieceFingerprints
+	 * @param fingerprints
+	 */
+	void measureLinearFragments(FragmentTable fragmentTable, double[] linearWeights, long[] pieceFingerprints, LongHashSet fingerprints) {
+		if (this.prefixWeights == null) {
+			this.nodeWeights = createNodeWeights();
+			this.prefixWeights = createPrefixWeights(this.nodeWeights);
+		}
+		
+		int[] nodes = new int[this.prefixWeights.length];
+		
+		for (int fragmentIndex = 0; fragmentIndex < this.fragments.size(); fragmentIndex++) {
+			int length = this.fragments.length(fragmentIndex);
+			
+			linearWeights[fragmentIndex] = calculateFragmentWeight(this.fragments, fragmentIndex, nodes);
+			pieceFingerprints[fragmentIndex] = fingerprintPiece(this.fragments.getNodes(fragmentIndex, nodes), length);
+			
+			if (fingerprints.add(fingerprintFragment(FragmentTable.LINEAR, pieceFingerprints[fragmentIndex], 0, 0))) {
+				fragmentTable.addLinear(fragmentIndex, linearWeights[fragmentIndex]);
+			}
+		}
+	}
+	
+	/**
+	 * Determines all the posisble branched fragments of a Peptide and adds them to the fragment table. 
+	 * Note that this only handles a cyclic peptide with only one cycle. Peptides with more than one cycle use findConnectedFragments instead.
+	 * 
+	 * A branched fragment is a linear fragment with one connection, followed by the linker and optionally by a second linear fragment with the other
+	 * connection. The weights of branched and cyclic fragments are assembled from the weights of their linear fragments and the weights of the
+	 * linkers. A fragment whose fingerprint is already in the set of fingerprints is dropped before it is weighed.
+	 * 
+	 * @param fragmentTable
+	 * @param linearWeights
+	 * @param pieceFingerprints
+	 * @param fingerprints
+	 */
+	void findBranchedAndCyclicFragments(FragmentTable fragmentTable, double[] linearWeights, long[] pieceFingerprints,
+			LongHashSet fingerprints) {
+		PeptideType type = this.peptide.getType();
+		BranchedFragmentBuilder builder = new BranchedFragmentBuilder(this.fragments, fragment -> linearWeights[fragment], createPruningLimit());
+		
+		FragmentSink sink = (kind, first, linkers, second) -> {
+			long secondFingerprint = second == -1 ? 0 : pieceFingerprints[second];
+			
+			if (!fingerprints.add(fingerprintFragment(kind, pieceFingerprints[first], linkers, secondFingerprint))) {
+				return;
+			}
+			
+			if (kind == FragmentTable.CYCLIC) {
+				fragmentTable.addCyclic(first, calculateCyclicFragmentWeight(linearWeights[first], type));
+			}
+			else {
+				double weight = calculateBranchedFragmentWeight(first, linkers, second, fragment -> linearWeights[fragment]);
+				fragmentTable.addBranched(first, linkers, second, weight);
+			}
+		};
+		
+		for (int item = 0; item < builder.size(); item++) {
+			builder.build(item, sink);
+		}
+	}
+	
+	/**
+	 * Calculates the molecular weight of the branched fragment made of the first fragment, the number of linker symbols and the second fragment (or
+	 * -1 for none), given the weights of the linear fragments by their positions in the fragment store.
+	 * 
+	 * @param first
+	 * @param linkers
+	 * @param second
+	 * @param linearWeights
+	 * @return
+	 */
+	private double calculateBranchedFragmentWeight(int first, int linkers, int second, IntToDoubleFunction linearWeights) {
+		double pieceWeights = linearWeights.applyAsDouble(first);
+		int pieces = 1;
+		
+		if (linkers > 0) {
+			pieceWeights += calculateLinkerWeight(linkers);
+			pieces++;
+		}
+		
+		if (second != -1) {
+			pieceWeights += linearWeights.applyAsDouble(second);
+			pieces++;
+		}
+		
+		return calculateBranchedFragmentWeight(pieceWeights, pieces);
+	}
+	
+	/**
+	 * Returns the weight of the given number of linker symbols weighed as a single piece, read from the linker positions of the prefix sums.
+	 * 
+	 * @param linkers
+	 * @return
+	 */
+	private double calculateLinkerWeight(int linkers) {
+		int linkerIndex = this.peptide.getSequence()
+			.length();
+		
+		return calculateSegmentWeight(linkerIndex, linkerIndex + linkers) - (18.0 * (linkers - 1));
+	}
+	
+	/**
+	 * Given the sum of the weights of the pieces of a branched fragment (linear fragments and linkers) and the number of pieces, calculates the
+	 * molecular weight of this branched fragment.
+	 * 
+	 * @param pieceWeights
+	 * @param pieces
+	 * @return
+	 */
+	private double calculateBranchedFragmentWeight(double pieceWeights, int pieces) {
+		double sum = pieceWeights;
+		
+		if (!this.peptide.getType()
+			.equals(PeptideType.AMIDE)) {
+			sum = sum - (18.0 * (pieces - 1));
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Caluculates the molecular weights of cyclic fragments given the weight of its linear fragment and the peptide type.
+	 * 
+	 * @param weight
+	 * @param type
+	 * @return
+	 */
+	private double calculateCyclicFragmentWeight(double weight, PeptideType type) {
+		// The String representation of a cyclic fragment starts with "#", which was always weighed as an empty piece of 18.0
+		double sum = weight + 18.0;
+		
+		switch (type) {
+			case CUSTOM:
+				sum = sum + calculateLinkerWeight(1) - (18.0 * 2);
+				break;
+			case DFBP:
+				sum = sum + calculateLinkerWeight(1) - (18.0 * 2);
+				break;
+			case DISULFIDE:
+				sum = sum + calculateLinkerWeight(2) - (18.0 * 2);
+				break;
+			case AMIDE:
+				break;
+			case LINEAR:
+				break;
+			
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Returns a map of <index of connection, fragments>. This is a convenient map where the key is the index where the connection is in a linear
+	 * fragment and the value holds the positions of these fragments in the fragment store. If the key is -1, the linear fragments can be possible
+	 * cyclic fragments.
+	 * 
+	 * @param fragments
+	 * @param connections
+	 * @return
+	 */
+	private Map<Integer, int[]> findConnectionsInFragments(FragmentStore fragments, List<Integer> connections) {
+		boolean[] isConnection = createConnectionMarks(connections);
+		
+		// First pass to find the connection of every fragment and count the fragments per connection
+		int[] fragmentConnections = new int[fragments.size()];
+		Map<Integer, Integer> counts = new HashMap<>();
+		
+		for (int fragment = 0; fragment < fragments.size(); fragment++) {
+			int index = determineConnectionInFragment(fragments, fragment, isConnection);
+			
+			fragmentConnections[fragment] = index;
+			counts.merge(index, 1, Integer::sum);
+		}
+		
+		// Second pass to fill the fragments of every connection in order
+		Map<Integer, int[]> connectionsInFragments = new HashMap<>();
+		for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+			connectionsInFragments.put(entry.getKey(), new int[entry.getValue()]);
+		}
+		
+		Map<Integer, Integer> filled = new HashMap<>();
+		for (int fragment = 0; fragment < fragments.size(); fragment++) {
+			int index = fragmentConnections[fragment];
+			int position = filled.merge(index, 1, Integer::sum) - 1;
+			
+			connectionsInFragments.get(index)[position] = fragment;
+		}
+		
+		return connectionsInFragments;
+	}
+	
+	/**
+	 * Returns an array with one entry per node of the graph, marking the nodes that are connections of the peptide.
+	 * 
+	 * @param connections
+	 * @return
+	 */
+	private boolean[] createConnectionMarks(List<Integer> connections) {
+		boolean[] isConnection = new boolean[this.peptide.getSequence()
+			.length() + 2];
+		
+		for (int connection : connections) {
+			isConnection[connection] = true;
+		}
+		
+		return isConnection;
+	}
+	
+	/**
+	 * Given a linear fragment and the connection points of a peptide, returns the index where the connection is in the linear fragment. Returns -1 
+	 * if the linear fragments has 2 connection fragments (possible cyclic fragment).
+	 * 
+	 * @param fragments
+	 * @param fragment
+	 * @param isConnection
+	 * @return
+	 */
+	private int determineConnectionInFragment(FragmentStore fragments, int fragment, boolean[] isConnection) {
+		int result = -2;
+		
+		int connectionCount = 0;
+		int firstConnection = -1;
+		
+		int length = fragments.length(fragment);
+		for (int i = 0; i < length; i++) {
+			int index = fragments.get(fragment, i);
+			
+			if (isConnection[index]) {
+				if (connectionCount == 0) {
+					firstConnection = index;
+				}
+				
+				connectionCount++;
+			}
+		}
+		
+		if (connectionCount == 1) {
+			result = firstConnection;
+		}
+		else if (connectionCount == 2) {
+			result = -1;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Given the peptide represented by its index and the peptide type, return the String representation 
+	 * of the peptide.
+	 * 
+	 * @param peptideIndex
+	 * @param type
+	 * @return
+	 */
+	public String getPeptideStringRepresentation(List<Integer> peptideIndex, PeptideType type) {
+		StringBuilder stringBuilder = new StringBuilder();
+		
+		for (int index : peptideIndex) {
+			appendNode(stringBuilder, index, type);
+		}
+		
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Given the position of a fragment in the fragment store and the peptide type, return the String representation of the fragment.
+	 * 
+	 * @param fragment
+	 * @param type
+	 * @return
+	 */
+	public String getPeptideStringRepresentation(int fragment, PeptideType type) {
+		StringBuilder stringBuilder = new StringBuilder();
+		appendFragment(stringBuilder, fragment, type);
+		
+		return stringBuilder.toString();
+	}
+	
+	/**
+	 * Appends the symbols of a fragment of the fragment store to the String representation of a fragment.
+	 * 
+	 * @param stringBuilder
+	 * @param fragment
+	 * @param type
+	 */
+	private void appendFragment(StringBuilder stringBuilder, int fragment, PeptideType type) {
+		int length = this.fragments.length(fragment);
+		
+		for (int i = 0; i < length; i++) {
+			appendNode(stringBuilder, this.fragments.get(fragment, i), type);
+		}
+	}
+	
+	/**
+	 * Appends the symbol of a node of the graph to the String representation of a fragment. Nodes past the end of the sequence are linkers.
+	 * 
+	 * @param stringBuilder
+	 * @param index
+	 * @param type
+	 */
+	private void appendNode(StringBuilder stringBuilder, int index, PeptideType type) {
+		String peptideSequence = this.peptide.getSequence();
+		
+		if (index < peptideSequence.length()) {
+			stringBuilder.append(peptideSequence.charAt(index));
+		}
+		else {
+			switch (type) {
+				case CUSTOM:
+					stringBuilder.append("%");
+					break;
+				case DFBP:
+					stringBuilder.append("2");
+					break;
+				case DISULFIDE:
+					stringBuilder.append("S");
+					break;
+				case LINEAR:
+					break;
+				case AMIDE:
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Given the position of a fragment in a fragment store, calculates its theoretical molecular weight. A linear fragment is a single segment of the
+	 * prefix sums. Any other fragment is copied into the nodes array, which must be able to hold the longest path of the graph.
+	 * 
+	 * @param fragments
+	 * @param fragment
+	 * @param nodes
+	 * @return
+	 */
+	private double calculateFragmentWeight(FragmentStore fragments, int fragment, int[] nodes) {
+		int length = fragments.length(fragment);
+		
+		if (fragments.isLinear(fragment)) {
+			int start = fragments.first(fragment);
+			
+			return calculateSegmentWeight(start, start + length) - (18.0 * (length - 1));
+		}
+		
+		return calculatePathWeight(fragments.getNodes(fragment, nodes), length);
+	}
+	
+	/**
+	 * Returns the fingerprint of a piece of a fragment given its first length nodes. The nodes are mixed one at a time and summed, so the
+	 * fingerprint only depends on the set of nodes of the piece and not on the order they were walked in.
+	 * 
+	 * @param nodes
+	 * @param length
+	 * @return
+	 */
+	private static long fingerprintPiece(int[] nodes, int length) {
+		long sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += mix(nodes[i] + 1);
+		}
+		
+		return mix(sum);
+	}
+	
+	/**
+	 * Returns the 64 bit fingerprint of a fragment given its kind, the fingerprints of its pieces (see fingerprintPiece) and the number of linker
+	 * symbols between them. A fragment with a single piece has 0 as its second fingerprint. The pieces are summed, so both orders of the pieces of
+	 * a branched fragment have the same fingerprint.
+	 * 
+	 * Different fragments have the same fingerprint only by chance, which for 64 bit fingerprints is negligible next to the number of fragments of
+	 * a peptide.
+	 * 
+	 * @param kind
+	 * @param first
+	 * @param linkers
+	 * @param second
+	 * @return
+	 */
+	static long fingerprintFragment(byte kind, long first, int linkers, long second) {
+		return mix(first + second + linkers * 0xc2b2ae3d27d4eb4fL + kind * 0x9e3779b97f4a7c15L);
+	}
+	
+	/**
+	 * The finalizer of SplitMix64, which spreads every bit of the value over the whole result.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+	
+	/**
+	 * Given the first length nodes of a path of the graph, calculates its theoretical molecular weight.
+	 * 
+	 * A path of up to DIRECT_SUM_LENGTH nodes adds the weights of its nodes in the order of the path, like the weight of its String representation
+	 * was always added up, so the weight is the same to the last digit. A longer path is split into its runs of consecutive nodes, which are
+	 * segments of the prefix sums read in either direction.
+	 * 
+	 * @param path
+	 * @param length
+	 * @return
+	 */
+	private double calculatePathWeight(int[] path, int length) {
+		double sum = 0;
+		int runStart = length <= DIRECT_SUM_LENGTH ? length : 0;
+		
+		for (int i = 0; i < runStart; i++) {
+			sum += this.nodeWeights[path[i]];
+		}
+		
+		while (runStart < length) {
+			int from = path[runStart];
+			int runEnd = runStart + 1;
+			
+			if (runEnd < length) {
+				int step = path[runEnd] - from;
+				
+				if (step == 1 || step == -1) {
+					while (runEnd < length && path[runEnd] == path[runEnd - 1] + step) {
+						runEnd++;
+					}
+				}
+			}
+			
+			int to = path[runEnd - 1];
+			sum += calculateSegmentWeight(Math.min(from, to), Math.max(from, to) + 1);
+			
+			runStart = runEnd;
+		}
+		
+		sum = sum - (18.0 * (length - 1));
+		
+		return sum;
+	}
+	
+	/**
+	 * Given the first length nodes of a connected fragment of a peptide with more than one cycle in increasing order, calculates its theoretical
+	 * molecular weight with the rules of the peptides with one cycle: the sum of the weights of its nodes minus 18.0 per node after the first,
+	 * except that an amide peptide loses no water at the amide bonds between the pieces of an open fragment (like its branched fragments) nor at
+	 * any amide bond of a closed fragment (like its cyclic fragments). An open fragment only keeps the bonds that join its pieces, a closed
+	 * fragment keeps every bond between its nodes.
+	 * 
+	 * @param neighbors
+	 * @param nodes
+	 * @param length
+	 * @param closed
+	 * @return
+	 */
+	private double calculateConnectedWeight(int[][] neighbors, int[] nodes, int length, boolean closed) {
+		double weight = calculatePathWeight(nodes, length);
+		
+		if (!this.peptide.getType()
+			.equals(PeptideType.AMIDE)) {
+			return weight;
+		}
+		
+		// An amide peptide has no linkers, so every bond between two nodes that do not follow each other is an amide bond
+		int backboneBonds = countBackboneBonds(nodes, length);
+		int amideBonds = closed ? countBonds(neighbors, nodes, length) - backboneBonds : length - 1 - backboneBonds;
+		
+		return weight + (18.0 * amideBonds);
+	}
+	
+	/**
+	 * Returns true if the first length nodes of a connected fragment, in increasing order, have more bonds between them than the bonds that join
+	 * them, in other words if the fragment can also be closed into a ring.
+	 * 
+	 * @param neighbors
+	 * @param nodes
+	 * @param length
+	 * @return
+	 */
+	private boolean hasRing(int[][] neighbors, int[] nodes, int length) {
+		return countBonds(neighbors, nodes, length) > length - 1;
+	}
+	
+	/**
+	 * Returns the number of bonds of the graph between the first length nodes of a fragment, in increasing order.
+	 * 
+	 * @param neighbors
+	 * @param nodes
+	 * @param length
+	 * @return
+	 */
+	private int countBonds(int[][] neighbors, int[] nodes, int length) {
+		int bonds = 0;
+		
+		for (int i = 0; i < length; i++) {
+			for (int neighbor : neighbors[nodes[i]]) {
+				if (neighbor > nodes[i] && Arrays.binarySearch(nodes, i + 1, length, neighbor) >= 0) {
+					bonds++;
+				}
+			}
+		}
+		
+		return bonds;
+	}
+	
+	/**
+	 * Returns the number of peptide bonds between consecutive amino acids among the first length nodes of a fragment, in increasing order.
+	 * 
+	 * @param nodes
+	 * @param length
+	 * @return
+	 */
+	private int countBackboneBonds(int[] nodes, int length) {
+		int linkerIndex = this.peptide.getSequence()
+			.length();
+		
+		int bonds = 0;
+		for (int i = 1; i < length; i++) {
+			if (nodes[i] < linkerIndex && nodes[i] == nodes[i - 1] + 1) {
+				bonds++;
+			}
+		}
+		
+		return bonds;
+	}
+	
+	/**
+	 * Returns the sum of the weights of the nodes from start (inclusive) to end (exclusive), where the nodes past the end of the sequence are the
+	 * linkers. A segment of up to DIRECT_SUM_LENGTH nodes is added up node by node, in increasing order, so that its weight does not pick up the
+	 * rounding of the prefix sums.
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private double calculateSegmentWeight(int start, int end) {
+		if (end - start > DIRECT_SUM_LENGTH) {
+			return this.prefixWeights[end] - this.prefixWeights[start];
+		}
+		
+		double sum = 0;
+		for (int node = start; node < end; node++) {
+			sum += this.nodeWeights[node];
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Creates the prefix sums of the weights of the nodes. Entry i is the sum of the weights of the nodes before node i.
+	 * 
+	 * @param nodeWeights
+	 * @return
+	 */
+	private double[] createPrefixWeights(double[] nodeWeights) {
+		double[] prefixWeights = new double[nodeWeights.length + 1];
+		
+		for (int i = 0; i < nodeWeights.length; i++) {
+			prefixWeights[i + 1] = prefixWeights[i] + nodeWeights[i];
+		}
+		
+		return prefixWeights;
+	}
+	
+	/**
+	 * Creates the weights of the nodes of the peptide: the amino acids of the sequence followed by the linker nodes, with at least two linker
+	 * positions. The positions past the linker nodes of the peptide weigh 0.
+	 * 
+	 * @return
+	 */
+	private double[] createNodeWeights() {
+		String peptideSequence = this.peptide.getSequence();
+		int length = peptideSequence.length();
+		int linkerNodes = countLinkerNodes();
+		
+		double[] nodeWeights = new double[length + Math.max(2, linkerNodes)];
+		
+		for (int i = 0; i < length; i++) {
+			nodeWeights[i] = getSymbolWeight(peptideSequence.charAt(i));
+		}
+		
+		// Weight of the linker nodes
+		double linker = 0;
+		
+		switch (this.peptide.getType()) {
+			case CUSTOM:
+				linker = getSymbolWeight('%');
+				break;
+			case DFBP:
+				linker = getSymbolWeight('2');
+				break;
+			case DISULFIDE:
+				linker = getSymbolWeight('S');
+				break;
+			case AMIDE:
+				break;
+			case LINEAR:
+				break;
+		}
+		
+		for (int i = length; i < length + linkerNodes; i++) {
+			nodeWeights[i] = linker;
+		}
+		
+		return nodeWeights;
+	}
+	
+	/**
+	 * Returns the number of linker nodes in the graph of the peptide: one DFBP or CUSTOM node or two S nodes per cycle (see
+	 * PeptideSerumStability.createGraphStructure).
+	 * 
+	 * @return
+	 */
+	private int countLinkerNodes() {
+		int cycles = Math.max(1, this.peptide.getConnections()
+			.size() / 2);
+		
+		switch (this.peptide.getType()) {
+			case CUSTOM:
+			case DFBP:
+				return cycles;
+			case DISULFIDE:
+				return 2 * cycles;
+			default:
+				return 0;
+		}
+	}
+	
+	/**
+	 * Returns true if the peptide has more than one cycle. The fragments of such peptides are the connected sets of nodes of the graph, see
+	 * findConnectedFragments.
+	 * 
+	 * @return
+	 */
+	private boolean isMulticyclic() {
+		return this.peptide.getConnections()
+			.size() > 2;
+	}
+	
+	/**
+	 * Returns the weight of a symbol. The custom weight of the peptide, if any, is the weight of "%"; every other weight comes from the residue
+	 * registry. Throws an IllegalArgumentException if the symbol has no weight.
+	 * 
+	 * @param symbol
+	 * @return
+	 */
+	public double getSymbolWeight(char symbol) {
+		if (symbol == '%' && this.peptide.getCustomWeight() != 0) {
+			return this.peptide.getCustomWeight();
+		}
+		
+		return this.residueMasses.getMass(symbol);
+	}
+	
+	/**
+	 * Initiates the process of finding all the possible fragments of the peptide.
 	 */
 	public FragmentAnalyzer findAllFragments() {
-		System.out.println("Finding all peptide fragments...");
+		log("Finding all peptide fragments...");
+		
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
+		
+		Map<Integer, List<Integer>> graph = this.peptide.getGraph();
+		int[][] adjacency = createAdjacency(graph);
+		double limit = createPruningLimit();
+		
+		if (isMulticyclic()) {
+			this.fragments.addAll(findConnectedFragments(createNeighbors(adjacency), 0, adjacency.length, limit));
+			
+			metrics.stop(AnalysisMetrics.Phase.ENUMERATE, startNanos);
+			
+			log("Done!");
+			return this;
+		}
+		
+		for (Map.Entry<Integer, List<Integer>> entry : graph.entrySet()) {
+			int start = entry.getKey();
+			
+			walkGraph(start, adjacency, limit);
+		}
+		
+		metrics.stop(AnalysisMetrics.Phase.ENUMERATE, startNanos);
+		
+		log("Done!");
+		return this;
+	}
+	
+	/**
+	 * Initiates the process of finding all the possible fragments of the peptide using the given fork/join pool.
+	 * 
+	 * Every starting node is walked in its own task, and the walk is split again into one task per target whenever it reaches a branching node
+	 * close to its starting node. Each task collects its fragments in its own list, and the lists are merged in the same order as the sequential
+	 * walk, so the fragments are identical to the ones found by findAllFragments().
+	 * 
+	 * @param pool
+	 * @return
+	 */
+	public FragmentAnalyzer findAllFragments(ForkJoinPool pool) {
+		log("Finding all peptide fragments...");
+		
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
+		
+		Map<Integer, List<Integer>> graph = this.peptide.getGraph();
+		int[][] adjacency = createAdjacency(graph);
+		double limit = createPruningLimit();
+		
+		// The connected fragments of a peptide with more than one cycle are found in one task per smallest node
+		if (isMulticyclic()) {
+			int[][] neighbors = createNeighbors(adjacency);
+			
+			List<ForkJoinTask<FragmentStore>> tasks = new ArrayList<>();
+			for (int root = 0; root < neighbors.length; root++) {
+				int from = root;
+				tasks.add(pool.submit(() -> findConnectedFragments(neighbors, from, from + 1, limit)));
+			}
+			
+			for (ForkJoinTask<FragmentStore> task : tasks) {
+				this.fragments.addAll(task.join());
+			}
+			
+			metrics.stop(AnalysisMetrics.Phase.ENUMERATE, startNanos);
+			
+			log("Done!");
+			return this;
+		}
+		
+		List<WalkTask> tasks = new ArrayList<>();
+		for (Map.Entry<Integer, List<Integer>> entry : graph.entrySet()) {
+			int start = entry.getKey();
+			
+			int[] fragmentIndex = new int[adjacency.length + 1];
+			fragmentIndex[0] = start;
+			
+			boolean[] visited = new boolean[adjacency.length];
+			visited[start] = true;
+			
+			WalkTask task = new WalkTask(-1, start, adjacency, fragmentIndex, 1, getStartWeight(start, limit), limit, visited, false, true);
+			pool.execute(task);
+			tasks.add(task);
+		}
+		
+		for (WalkTask task : tasks) {
+			this.fragments.addAll(task.join());
+		}
+		
+		metrics.stop(AnalysisMetrics.Phase.ENUMERATE, startNanos);
+		
+		log("Done!");
+		return this;
+	}
+	
+	/**
+	 * Returns a sequential stream of all the fragments of the peptide and their theoretical molecular weights, in the same order as they are found
+	 * by findAllFragments().measureAllFragmentWeights(). See streamFragments(boolean).
+	 * 
+	 * @return
+	 */
+	public Stream<Fragment> streamFragments() {
+		return streamFragments(false);
+	}
+	
+	/**
+	 * Returns a stream of all the fragments of the peptide and their theoretical molecular weights. Unlike findAllFragments(), nothing is kept in
+	 * this analyzer: the fragments are found lazily while the stream is consumed, so a pipeline that filters, matches or counts the fragments only
+	 * holds the fragments it keeps.
+	 * 
+	 * The fragments of a peptide with more than one cycle are the connected sets of nodes of its graph, found one at a time like in
+	 * findConnectedFragments. For other peptides, linear fragments are walked one at a time with an explicit stack, and split by starting node when
+	 * the stream is parallel. Branched and cyclic fragments are then assembled from the linear fragments with a connection, which are found by a
+	 * second walk and are the only fragments kept in memory. These are usually a small part of all the fragments, and the branched fragments built
+	 * from them, which are by far the most numerous, are streamed one linear fragment at a time.
+	 * 
+	 * Unlike the fragment table, the stream does not drop the fragments found more than once, since that would mean remembering every fragment.
+	 * A pipeline that needs every fragment only once can keep the fingerprints of the fragments it has seen (see Fragment.getFingerprint()) in a
+	 * LongHashSet.
+	 * 
+	 * @param parallel
+	 * @return
+	 */
+	public Stream<Fragment> streamFragments(boolean parallel) {
+		Map<Integer, List<Integer>> graph = this.peptide.getGraph();
+		
+		int[][] adjacency = createAdjacency(graph);
+		int[] starts = graph.keySet()
+			.stream()
+			.mapToInt(Integer::intValue)
+			.toArray();
+		
+		this.nodeWeights = createNodeWeights();
+		this.prefixWeights = createPrefixWeights(this.nodeWeights);
+		double limit = createPruningLimit();
+		
+		if (isMulticyclic()) {
+			return StreamSupport.stream(new ConnectedFragmentSpliterator(createNeighbors(adjacency), 0, adjacency.length, limit), parallel);
+		}
+		
+		Stream<Fragment> linearFragments = StreamSupport.stream(new LinearFragmentSpliterator(adjacency, starts, 0, starts.length, limit), parallel);
+		
+		if (this.peptide.getType()
+			.equals(PeptideType.LINEAR)) {
+			return linearFragments;
+		}
+		
+		// The linear fragments with a connection are only walked once the stream reaches the branched fragments
+		Supplier<Spliterator<Fragment>> branchedFragments = () -> {
+			FragmentStore connectionFragments = findConnectionFragments(adjacency, starts, limit);
+			
+			int[] nodes = new int[adjacency.length + 1];
+			double[] weights = new double[connectionFragments.size()];
+			long[] pieceFingerprints = new long[connectionFragments.size()];
+			for (int fragment = 0; fragment < weights.length; fragment++) {
+				weights[fragment] = calculateFragmentWeight(connectionFragments, fragment, nodes);
+				pieceFingerprints[fragment] = fingerprintPiece(connectionFragments.getNodes(fragment, nodes), connectionFragments.length(fragment));
+			}
+			
+			BranchedFragmentBuilder builder = new BranchedFragmentBuilder(connectionFragments, fragment -> weights[fragment], limit);
+			return new BranchedFragmentSpliterator(builder, weights, pieceFingerprints, 0, builder.size());
+		};
+		
+		return Stream.concat(linearFragments,
+				StreamSupport.stream(branchedFragments, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE, parallel));
+	}
+	
+	/**
+	 * Walks the graph and returns a fragment store with only the linear fragments that contain a connection, in the order of the walk.
+	 * 
+	 * @param adjacency
+	 * @param starts
+	 * @param limit
+	 * @return
+	 */
+	private FragmentStore findConnectionFragments(int[][] adjacency, int[] starts, double limit) {
+		FragmentStore fragments = new FragmentStore();
+		boolean[] isConnection = createConnectionMarks(this.peptide.getConnections());
+		
+		LinearFragmentSpliterator walk = new LinearFragmentSpliterator(adjacency, starts, 0, starts.length, limit);
+		while (walk.advance()) {
+			int fragment = fragments.add(walk.path, walk.length);
+			
+			if (determineConnectionInFragment(fragments, fragment, isConnection) == -2) {
+				fragments.removeLast();
+			}
+		}
+		
+		return fragments;
+	}
+	
+	/**
+	 * Given a starting node (amino acid) and the graph representation of the peptide, traverse all the possible
+	 * paths from that starting node.
+	 * 
+	 * Recursive backtracking is the algorithm used to traverse every possible path from the starting node. See the private helper method to check the
+	 * details of the recursive backtracking implementation.
+	 * 
+	 * @param start
+	 * @param graph
+	 */
+	public void walkGraph(int start, Map<Integer, List<Integer>> graph) {
+		walkGraph(start, createAdjacency(graph), createPruningLimit());
+	}
+	
+	/**
+	 * Traverses all the possible paths from the starting node given the adjacency arrays of the graph, up to the given weight limit.
+	 * 
+	 * @param start
+	 * @param adjacency
+	 * @param limit
+	 */
+	private void walkGraph(int start, int[][] adjacency, double limit) {
+		int[] fragmentIndex = new int[adjacency.length + 1];
+		fragmentIndex[0] = start;
+		
+		boolean[] visited = new boolean[adjacency.length];
+		visited[start] = true;
+		
+		walkGraph(-1, start, adjacency, fragmentIndex, 1, getStartWeight(start, limit), limit, visited, this.fragments, false);
+	}
+	
+	/**
+	 * Helper method for the recursive backtracking implementation of traversing the graph given a starting node.
+	 * 
+	 * The before parameter keeps track of the last node visited by the algorithm. This prevents the traversing to go back prematurely and also prevent
+	 * an infinite loop in the linker of cyclic peptides.
+	 * The start parameter indicates the current location of traversing the graph.
+	 * The fragmentIndex is the stack of traversed nodes during the recursive backtracking step, and length is the number of nodes on the stack.
+	 * The weight is the weight of the nodes on the stack. A path heavier than the limit is not walked any further, since walking only makes
+	 * fragments heavier, and is not a fragment unless it has two nodes (see createPruningLimit). The weight is only tracked if the limit is finite.
+	 * The visited array marks the nodes on the stack. If a target is already visited, a cycle is formed: the path to the target is still a fragment,
+	 * but the traversing is terminated there.
+	 * The fragments parameter collects all possible fragments visited by the algorithm.
+	 * If fork is true, the method is running inside a WalkTask and splits the walk into one task per target at branching nodes near the root.
+	 * 
+	 * @param before
+	 * @param start
+	 * @param adjacency
+	 * @param fragmentIndex
+	 * @param length
+	 * @param weight
+	 * @param limit
+	 * @param visited
+	 * @param fragments
+	 * @param fork
+	 */
+	private void walkGraph(int before, int start, int[][] adjacency, int[] fragmentIndex, int length, double weight, double limit,
+			boolean[] visited, FragmentStore fragments, boolean fork) {
+		int[] targets = adjacency[start];
+		
+		if (targets == null) { // Base case: end of the peptide. The last amino acid has no targets in the graph.
+			return;
+		}
+		
+		// Walk each choice of a branching path in its own task while the remaining subtrees are still large
+		if (fork && targets.length > 1 && length < FORK_DEPTH) {
+			List<WalkTask> tasks = new ArrayList<>();
+			
+			for (int target : targets) {
+				if (target == before) { // Prevents walk to backtrack
+					continue;
+				}
+				
+				double targetWeight = getTargetWeight(weight, target, limit);
+				if (targetWeight > limit && length > 1) {
+					continue;
+				}
+				
+				int[] copyFragmentIndex = Arrays.copyOf(fragmentIndex, fragmentIndex.length);
+				copyFragmentIndex[length] = target;
+				
+				boolean[] copyVisited = Arrays.copyOf(visited, visited.length);
+				copyVisited[target] = true;
+				
+				tasks.add(new WalkTask(start, target, adjacency, copyFragmentIndex, length + 1, targetWeight, limit, copyVisited, true,
+						!visited[target] && targetWeight <= limit));
+			}
+			
+			ForkJoinTask.invokeAll(tasks);
+			
+			for (WalkTask task : tasks) {
+				fragments.addAll(task.join());
+			}
+			
+			return;
+		}
+		
+		// Iterate over the different choices during a branching path
+		for (int target : targets) {
+			if (target == before) { // Prevents walk to backtrack
+				continue;
+			}
+			
+			// Base case: the path is too heavy. Every path walked from it is heavier, but paths of two nodes are kept (see createPruningLimit).
+			double targetWeight = getTargetWeight(weight, target, limit);
+			if (targetWeight > limit && length > 1) {
+				continue;
+			}
+			
+			// Keeping track of traversed nodes
+			fragmentIndex[length] = target;
+			fragments.add(fragmentIndex, length + 1);
+			
+			// Base case: cycle has formed. Cycle is formed whenever the target has already been visited.
+			if (visited[target] || targetWeight > limit) {
+				continue;
+			}
+			
+			// Recursive step, then backtracking step when finding a terminal/base case
+			visited[target] = true;
+			walkGraph(start, target, adjacency, fragmentIndex, length + 1, targetWeight, limit, visited, fragments, fork);
+			visited[target] = false;
+		}
+	}
+	
+	/**
+	 * Returns the weight of a path made only of the starting node, or 0 if the walk is not limited.
+	 * 
+	 * @param start
+	 * @param limit
+	 * @return
+	 */
+	private double getStartWeight(int start, double limit) {
+		if (limit == Double.POSITIVE_INFINITY) {
+			return 0;
+		}
+		
+		return calculateSegmentWeight(start, start + 1);
+	}
+	
+	/**
+	 * Given the weight of a path, returns the weight of the path extended with the target node, or 0 if the walk is not limited.
+	 * 
+	 * @param weight
+	 * @param target
+	 * @param limit
+	 * @return
+	 */
+	private double getTargetWeight(double weight, int target, double limit) {
+		if (limit == Double.POSITIVE_INFINITY) {
+			return 0;
+		}
+		
+		return weight + calculateSegmentWeight(target, target + 1) - 18.0;
+	}
+	
+	/**
+	 * Returns the weight above which the search for fragments can stop, or positive infinity if the search is not limited (see
+	 * limitToMassSpecData).
+	 * 
+	 * Appending a node to a path adds its weight minus 18.0 for the water lost, so fragments only get heavier along a walk if every node weighs
+	 * at least 18.0. Branched and cyclic fragments are then also at least as heavy as their linear fragments. If a node is lighter, for example a
+	 * light custom linker, the search is not limited. The limit is slightly above the weight limit so that the rounding of the weights along a
+	 * walk never removes a fragment that can match.
+	 * 
+	 * Paths of two nodes are always kept, whatever their weight. The second pass of findBranchedAndCyclicFragments pairs a fragment with the first
+	 * connection with itself as soon as one fragment with the second connection fits, and whenever such a fragment exists, one of two nodes fits
+	 * as well.
+	 * 
+	 * @return
+	 */
+	private double createPruningLimit() {
+		if (this.weightLimit == Double.POSITIVE_INFINITY) {
+			return Double.POSITIVE_INFINITY;
+		}
+		
+		if (this.prefixWeights == null) {
+			this.nodeWeights = createNodeWeights();
+			this.prefixWeights = createPrefixWeights(this.nodeWeights);
+		}
+		
+		int nodes = this.peptide.getSequence()
+			.length() + countLinkerNodes();
+		
+		for (int node = 0; node < nodes; node++) {
+			if (calculateSegmentWeight(node, node + 1) < 18.0) {
+				return Double.POSITIVE_INFINITY;
+			}
+		}
+		
+		return this.weightLimit + 1e-6;
+	}
+	
+	/**
+	 * Finds the fragments of a peptide with more than one cycle whose smallest node is in the given range, and returns them in a new fragment
+	 * store with their nodes in increasing order.
+	 * 
+	 * Such a fragment is a connected set of at least two nodes of the graph, whatever the bonds between them that are broken. Each set is found
+	 * exactly once, from its smallest node, so equivalent fragments (the same set walked in another order, or the same ring opened at another bond)
+	 * are never found twice and need no deduplication. Every set is found by extending a smaller set found before it by one node, which reuses the
+	 * work shared by all the sets that contain it instead of nesting one loop per cycle. Sets heavier than the limit are not extended.
+	 * 
+	 * Every set is an open fragment, and a set with a ring is also a closed fragment, see calculateConnectedWeight for their weights.
+	 * 
+	 * @param neighbors
+	 * @param from
+	 * @param to
+	 * @param limit
+	 * @return
+	 */
+	private FragmentStore findConnectedFragments(int[][] neighbors, int from, int to, double limit) {
+		FragmentStore fragments = new FragmentStore();
+		
+		ConnectedFragmentSpliterator walk = new ConnectedFragmentSpliterator(neighbors, from, to, limit);
+		while (walk.advance()) {
+			fragments.add(walk.sortedSet, walk.size);
+		}
+		
+		return fragments;
+	}
+	
+	/**
+	 * Converts the adjacency arrays of the graph into arrays of neighbors in increasing order, ignoring the direction of the edges and any self
+	 * loop.
+	 * 
+	 * @param adjacency
+	 * @return
+	 */
+	private int[][] createNeighbors(int[][] adjacency) {
+		boolean[][] bonds = new boolean[adjacency.length][adjacency.length];
+		
+		for (int source = 0; source < adjacency.length; source++) {
+			if (adjacency[source] == null) {
+				continue;
+			}
+			
+			for (int target : adjacency[source]) {
+				if (target != source) {
+					bonds[source][target] = true;
+					bonds[target][source] = true;
+				}
+			}
+		}
 		
-		Map<Integer, List<Integer>> graph = this.peptide.getGraph();
-		for (Map.Entry<Integer, List<Integer>> entry : graph.entrySet()) {
-			int start = entry.getKey();
+		int[][] neighbors = new int[adjacency.length][];
+		for (int node = 0; node < adjacency.length; node++) {
+			int count = 0;
+			int[] nodeNeighbors = new int[adjacency.length];
 			
-			walkGraph(start, graph);
+			for (int neighbor = 0; neighbor < adjacency.length; neighbor++) {
+				if (bonds[node][neighbor]) {
+					nodeNeighbors[count++] = neighbor;
+				}
+			}
+			
+			neighbors[node] = Arrays.copyOf(nodeNeighbors, count);
 		}
 		
-		System.out.println("Done!");
-		return this;
+		return neighbors;
 	}
 	
 	/**
-	 * Given a starting node (amino acid) and the graph representation of the peptide, traverse all the possible
-	 * paths from that starting node.
-	 * 
-	 * Recursive backtracking is the algorithm used to traverse every possible path from the starting node. See the private helper method to check the
-	 * details of the recursive backtracking implementation.
+	 * Converts the graph representation of the peptide into arrays of targets indexed by node. Nodes without targets have a null entry.
 	 * 
-	 * @param start
 	 * @param graph
+	 * @return
 	 */
-	public void walkGraph(int start, Map<Integer, List<Integer>> graph) {
-		List<Integer> fragmentIndex = new ArrayList<>();
-		fragmentIndex.add(start);
+	private int[][] createAdjacency(Map<Integer, List<Integer>> graph) {
+		int size = 0;
+		for (Map.Entry<Integer, List<Integer>> entry : graph.entrySet()) {
+			size = Math.max(size, entry.getKey() + 1);
+			
+			for (int target : entry.getValue()) {
+				size = Math.max(size, target + 1);
+			}
+		}
 		
-		walkGraph(start, -1, start, graph, fragmentIndex);
+		int[][] adjacency = new int[size][];
+		for (Map.Entry<Integer, List<Integer>> entry : graph.entrySet()) {
+			adjacency[entry.getKey()] = entry.getValue()
+				.stream()
+				.mapToInt(Integer::intValue)
+				.toArray();
+		}
+		
+		return adjacency;
 	}
 	
 	/**
-	 * Helper method for the recursive backtracking implementation of traversing the graph given a starting node.
+	 * Fork/join task that walks the graph from its start node into its own list of fragments.
 	 * 
-	 * The root parameter is the starting node of the algorithm. If the root is visited, a cycle is formed and the traversing is terminated.
-	 * The before parameter keeps track of the last node visited by the algorithm. This prevents the traversing to go back prematurely and also prevent
-	 * an infinite loop in the linker of cyclic peptides.
-	 * The start parameter indicates the current location of traversing the graph.
-	 * The fragmentIndex keeps track of the traversed nodes during the recursive backtracking step.
+	 * If record is true, the path that leads to the start node is itself a fragment and is saved first. If walk is false, the path has formed a
+	 * cycle and is not walked any further.
+	 */
+	private class WalkTask extends RecursiveTask<FragmentStore> {
+		private static final long serialVersionUID = 1L;
+		
+		private int before;
+		private int start;
+		private int[][] adjacency;
+		private int[] fragmentIndex;
+		private int length;
+		private double weight;
+		private double limit;
+		private boolean[] visited;
+		private boolean record;
+		private boolean walk;
+		
+		public WalkTask(int before, int start, int[][] adjacency, int[] fragmentIndex, int length, double weight, double limit, boolean[] visited,
+				boolean record, boolean walk) {
+			this.before = before;
+			this.start = start;
+			this.adjacency = adjacency;
+			this.fragmentIndex = fragmentIndex;
+			this.length = length;
+			this.weight = weight;
+			this.limit = limit;
+			this.visited = visited;
+			this.record = record;
+			this.walk = walk;
+		}
+		
+		@Override
+		protected FragmentStore compute() {
+			FragmentStore fragments = new FragmentStore();
+			
+			if (record) {
+				fragments.add(fragmentIndex, length);
+			}
+			
+			if (walk) {
+				walkGraph(before, start, adjacency, fragmentIndex, length, weight, limit, visited, fragments, true);
+			}
+			
+			return fragments;
+		}
+	}
+	
+	/**
+	 * Receives the branched and cyclic fragments found by a BranchedFragmentBuilder, described by positions in its fragment store. A cyclic fragment
+	 * has no linkers and no second fragment.
+	 */
+	private interface FragmentSink {
+		void add(byte kind, int first, int linkers, int second);
+	}
+	
+	/**
+	 * Finds the branched and cyclic fragments that can be made from the linear fragments of a fragment store.
 	 * 
-	 * This method also saves all possible fragments visited by the algorithm into the fragments field.
+	 * The work is split into items: every linear fragment with the first connection, then every linear fragment with the second connection, then
+	 * every possible cyclic fragment. Building an item finds all the fragments that start with it, and building the items in order finds the
+	 * fragments in the order of the fragment table. The builder is not modified by building an item, so different items can be built at the same
+	 * time.
 	 * 
-	 * @param root
-	 * @param before
-	 * @param start
-	 * @param graph
-	 * @param fragmentIndex
+	 * Branched fragments heavier than the limit are skipped before checking that their pieces are disjoint, and so are all the branched fragments
+	 * starting with a linear fragment with the first connection that is already heavier than the limit (see createPruningLimit).
 	 */
-	private void walkGraph(int root, int before, int start, Map<Integer, List<Integer>> graph, List<Integer> fragmentIndex) {
-		if (!graph.containsKey(start)) { // Base case: end of the peptide. The last amino acid has no targets in the graph.
-			return;
+	private class BranchedFragmentBuilder {
+		private FragmentStore fragments;
+		private IntToDoubleFunction linearWeights;
+		private double limit;
+		private List<Integer> connections;
+		private int connection1;
+		private int connection2;
+		
+		private int[] fragmentsWith1;
+		private int[] fragmentsWith2;
+		private int[] possibleCyclicFragments;
+		
+		// Linker symbols appended to a fragment with a single connection (DFBP or S then SS), and between two fragments (DFBP or SS)
+		private int[] singleLinkers;
+		private int pairLinkers;
+		
+		public BranchedFragmentBuilder(FragmentStore fragments, IntToDoubleFunction linearWeights, double limit) {
+			this.fragments = fragments;
+			this.linearWeights = linearWeights;
+			this.limit = limit;
+			this.connections = peptide.getConnections();
+			this.connection1 = connections.get(0);
+			this.connection2 = connections.get(1);
+			
+			Map<Integer, int[]> connectionInFragments = findConnectionsInFragments(fragments, connections);
+			
+			this.fragmentsWith1 = connectionInFragments.getOrDefault(connection1, new int[0]);
+			this.fragmentsWith2 = connectionInFragments.getOrDefault(connection2, new int[0]);
+			this.possibleCyclicFragments = connectionInFragments.getOrDefault(-1, new int[0]);
+			
+			// Stop finding branched and cyclic fragments if there are no fragments with connections
+			if (fragmentsWith1.length == 0 || fragmentsWith2.length == 0) {
+				this.fragmentsWith1 = new int[0];
+				this.fragmentsWith2 = new int[0];
+				this.possibleCyclicFragments = new int[0];
+			}
+			
+			switch (peptide.getType()) {
+				case CUSTOM:
+				case DFBP:
+					this.singleLinkers = new int[] { 1 };
+					this.pairLinkers = 1;
+					break;
+				case DISULFIDE:
+					this.singleLinkers = new int[] { 1, 2 };
+					this.pairLinkers = 2;
+					break;
+				default:
+					this.singleLinkers = new int[0];
+					this.pairLinkers = 0;
+					break;
+			}
 		}
-		else if (hasDuplicates(fragmentIndex)) { // Base case: cycle has formed. Cycle is formed whenever a duplicate occurs.
-			return;
+		
+		/**
+		 * Returns the number of items to build.
+		 * 
+		 * @return
+		 */
+		public int size() {
+			return fragmentsWith1.length + fragmentsWith2.length + possibleCyclicFragments.length;
 		}
-		else {
-			List<Integer> targets = graph.get(start);
+		
+		/**
+		 * Finds the fragments of the given item and passes them to the sink.
+		 * 
+		 * @param item
+		 * @param sink
+		 */
+		public void build(int item, FragmentSink sink) {
+			if (item < fragmentsWith1.length) {
+				buildWith1(fragmentsWith1[item], sink);
+			}
+			else if (item < fragmentsWith1.length + fragmentsWith2.length) {
+				buildWith2(fragmentsWith2[item - fragmentsWith1.length], sink);
+			}
+			else {
+				int possibleCyclicFragment = possibleCyclicFragments[item - fragmentsWith1.length - fragmentsWith2.length];
+				
+				if (isCyclicFragment(possibleCyclicFragment)) {
+					sink.add(FragmentTable.CYCLIC, possibleCyclicFragment, 0, -1);
+				}
+			}
+		}
+		
+		/**
+		 * Builds the branched fragments starting with a linear fragment with the first connection.
+		 * 
+		 * @param fragmentWith1
+		 * @param sink
+		 */
+		private void buildWith1(int fragmentWith1, FragmentSink sink) {
+			// Skip if the fragment contains the linker or if every branched fragment made from it is too heavy
+			if (containsLinker(fragmentWith1) || linearWeights.applyAsDouble(fragmentWith1) > limit) {
+				return;
+			}
+			
+			int connection1Position = fragments.indexOf(fragmentWith1, connection1);
+			
+			// Only append the linkers if the connection is not in the beginning
+			if (fragments.first(fragmentWith1) != connection1) {
+				for (int linkers : singleLinkers) {
+					sink.add(FragmentTable.BRANCHED, fragmentWith1, linkers, -1);
+				}
+			}
 			
-			// Iterate over the different choices during a branching path
-			for (int i = 0; i < targets.size(); i++) {
-				int target = targets.get(i);
+			// Scratch space to compare the nodes of two fragments
+			boolean[] marked = new boolean[peptide.getSequence()
+				.length() + 2];
+			
+			// Start building branched fragments using the linear fragment with the second connection
+			for (int fragmentWith2 : fragmentsWith2) {
 				
-				if (target == before) { // Prevents walk to backtrack
+				// Skip if appending two fragments would form a linear peptide
+				if (isLinear(fragmentWith1, fragmentWith2) || isTooHeavy(fragmentWith1, fragmentWith2)) {
+					continue;
+				}
+				
+				int connection2Position = fragments.indexOf(fragmentWith2, connection2);
+				
+				// Skip if the fragment contains the linker
+				if (isValidBranchedFragment(fragmentWith1, connection1Position, fragmentWith2, connection2Position, marked)
+						&& !containsLinker(fragmentWith2)) {
+					sink.add(FragmentTable.BRANCHED, fragmentWith1, pairLinkers, fragmentWith2);
+				}
+			}
+		}
+		
+		/**
+		 * Builds the branched fragments starting with a linear fragment with the second connection.
+		 * 
+		 * @param fragmentWith2
+		 * @param sink
+		 */
+		private void buildWith2(int fragmentWith2, FragmentSink sink) {
+			// Skip if linear fragment contains the linker
+			if (containsLinker(fragmentWith2)) {
+				return;
+			}
+			
+			int connection2Position = fragments.indexOf(fragmentWith2, connection2);
+			
+			// Only append the linkers if connection is not in the end of the fragment, and if the fragment is not too heavy. The fragments below do
+			// not contain this fragment, so they are built anyway.
+			if (fragments.last(fragmentWith2) != connection2 && linearWeights.applyAsDouble(fragmentWith2) <= limit) {
+				for (int linkers : singleLinkers) {
+					sink.add(FragmentTable.BRANCHED, fragmentWith2, linkers, -1);
+				}
+			}
+			
+			// Scratch space to compare the nodes of two fragments
+			boolean[] marked = new boolean[peptide.getSequence()
+				.length() + 2];
+			
+			// Start building branched fragments using linear fragments with the first connection
+			for (int fragmentWith1 : fragmentsWith1) {
+				
+				// Skip if appending two fragments would form a linear peptide
+				if (isLinear(fragmentWith1, fragmentWith2) || isTooHeavy(fragmentWith1, fragmentWith1)) {
+					continue;
+				}
+				
+				int connection1Position = fragments.indexOf(fragmentWith1, connection1);
+				
+				// Skip if fragment contains the linker. Note that this pass has always paired the fragment with the first connection with itself.
+				if (isValidBranchedFragment(fragmentWith1, connection1Position, fragmentWith2, connection2Position, marked)
+						&& !containsLinker(fragmentWith1)) {
+					sink.add(FragmentTable.BRANCHED, fragmentWith1, pairLinkers, fragmentWith1);
+				}
+			}
+		}
+		
+		/**
+		 * Returns true if the fragment goes through a linker node (DFBP, CUSTOM, S or SS).
+		 * 
+		 * @param fragment
+		 * @return
+		 */
+		private boolean containsLinker(int fragment) {
+			int linkerIndex = peptide.getSequence()
+				.length();
+			
+			return fragments.contains(fragment, linkerIndex) || fragments.contains(fragment, linkerIndex + 1);
+		}
+		
+		/**
+		 * Determines if appending fragment1 (with the first connection) and fragment2 (with the second connection) results in a linear peptide.
+		 * 
+		 * @param fragment1
+		 * @param fragment2
+		 * @return
+		 */
+		private boolean isLinear(int fragment1, int fragment2) {
+			if (fragments.first(fragment1) == connection1 && fragments.last(fragment2) == connection2) {
+				return true;
+			}
+			else if (fragments.last(fragment1) == connection1 && fragments.first(fragment2) == connection2) {
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+		
+		/**
+		 * Returns true if the branched fragment made of the first fragment, the linkers and the second fragment is heavier than the limit.
+		 * 
+		 * @param first
+		 * @param second
+		 * @return
+		 */
+		private boolean isTooHeavy(int first, int second) {
+			if (limit == Double.POSITIVE_INFINITY) {
+				return false;
+			}
+			
+			return calculateBranchedFragmentWeight(first, pairLinkers, second, linearWeights) > limit;
+		}
+		
+		/**
+		 * Given the amino acids after the first connection and the amino acids before a connection, determines if the branched fragments is truly
+		 * valid. A branched fragment is only valid if the two inputs do not share any elements.
+		 * 
+		 * The amino acids after the first connection are the nodes of fragment1 from connection1Position to its end, and the amino acids before the
+		 * second connection are the nodes of fragment2 from its beginning to connection2Position. The marked array is scratch space with one entry
+		 * per node and is left cleared.
+		 * 
+		 * Returns true if the branched fragments is valid.
+		 * 
+		 * @param fragment1
+		 * @param connection1Position
+		 * @param fragment2
+		 * @param connection2Position
+		 * @param marked
+		 * @return
+		 */
+		private boolean isValidBranchedFragment(int fragment1, int connection1Position, int fragment2, int connection2Position, boolean[] marked) {
+			int length1 = fragments.length(fragment1);
+			
+			for (int i = connection1Position; i < length1; i++) {
+				marked[fragments.get(fragment1, i)] = true;
+			}
+			
+			boolean valid = true;
+			for (int i = 0; i <= connection2Position; i++) {
+				if (marked[fragments.get(fragment2, i)]) {
+					valid = false;
+					break;
+				}
+			}
+			
+			for (int i = connection1Position; i < length1; i++) {
+				marked[fragments.get(fragment1, i)] = false;
+			}
+			
+			return valid;
+		}
+		
+		/**
+		 * Determines if a possible cyclic fragment is truly a cyclic fragment.
+		 * 
+		 * @param possibleCyclicFragment
+		 * @return
+		 */
+		private boolean isCyclicFragment(int possibleCyclicFragment) {
+			
+			for (int connection : connections) {
+				int index = fragments.indexOf(possibleCyclicFragment, connection);
+				
+				if (index != connection) {
+					return false;
+				}
+			}
+			
+			return !containsLinker(possibleCyclicFragment);
+		}
+	}
+	
+	/**
+	 * Spliterator over the linear fragments of the walks from a range of starting nodes. The walk is the same recursive backtracking as
+	 * walkGraph, with the recursion replaced by an explicit stack of nodes and of the next target to try at every node, so the walk can stop after
+	 * every fragment. The spliterator only splits between starting nodes. Like walkGraph, it does not walk past paths heavier than the limit.
+	 */
+	private class LinearFragmentSpliterator implements Spliterator<Fragment> {
+		private int[][] adjacency;
+		private int[] starts;
+		private int next;
+		private int end;
+		private double limit;
+		
+		private int[] path;
+		private double[] pathWeights;
+		private int[] targetIndex;
+		private boolean[] visited;
+		private int depth;
+		private int length;
+		
+		public LinearFragmentSpliterator(int[][] adjacency, int[] starts, int next, int end, double limit) {
+			this.adjacency = adjacency;
+			this.starts = starts;
+			this.next = next;
+			this.end = end;
+			this.limit = limit;
+			
+			this.path = new int[adjacency.length + 1];
+			this.pathWeights = new double[adjacency.length + 1];
+			this.targetIndex = new int[adjacency.length + 1];
+			this.visited = new boolean[adjacency.length];
+		}
+		
+		/**
+		 * Walks to the next fragment and leaves it in the first length nodes of the path. Returns false when every walk is done.
+		 * 
+		 * @return
+		 */
+		public boolean advance() {
+			while (true) {
+				if (depth == 0) {
+					if (next >= end) {
+						return false;
+					}
+					
+					int start = starts[next++];
+					path[0] = start;
+					pathWeights[0] = getStartWeight(start, limit);
+					visited[start] = true;
+					targetIndex[1] = 0;
+					depth = 1;
+				}
+				
+				int node = path[depth - 1];
+				int[] targets = adjacency[node];
+				
+				// Backtracking step once every target of the node has been tried
+				if (targets == null || targetIndex[depth] >= targets.length) {
+					visited[node] = false;
+					depth--;
+					continue;
+				}
+				
+				int target = targets[targetIndex[depth]++];
+				if (depth > 1 && target == path[depth - 2]) { // Prevents walk to backtrack
 					continue;
 				}
 				
-				// Keeping track of traversed nodes
-				fragmentIndex.add(target);
+				double targetWeight = getTargetWeight(pathWeights[depth - 1], target, limit);
+				if (targetWeight > limit && depth > 1) {
+					continue;
+				}
 				
-				// Create a new list for each valid fragment
-				List<Integer> copyFragmentIndex = new ArrayList<>();
-				copyFragmentIndex.addAll(fragmentIndex);
-				this.fragments.add(copyFragmentIndex);
+				path[depth] = target;
+				pathWeights[depth] = targetWeight;
+				length = depth + 1;
 				
-				// Recursive step
-				walkGraph(root, start, target, graph, fragmentIndex);
+				// Only walk further if the target does not form a cycle and the path is not too heavy
+				if (!visited[target] && targetWeight <= limit) {
+					visited[target] = true;
+					depth++;
+					targetIndex[depth] = 0;
+				}
 				
-				// Backtracking step when finding a terminal/base case
-				fragmentIndex.remove(fragmentIndex.size() - 1);
+				return true;
+			}
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super Fragment> action) {
+			if (!advance()) {
+				return false;
+			}
+			
+			long fingerprint = fingerprintFragment(FragmentTable.LINEAR, fingerprintPiece(path, length), 0, 0);
+			action.accept(new Fragment(FragmentAnalyzer.this, FragmentTable.LINEAR, Arrays.copyOf(path, length), calculatePathWeight(path, length),
+					fingerprint));
+			return true;
+		}
+		
+		@Override
+		public Spliterator<Fragment> trySplit() {
+			// Only split before the walk of a starting node begins, so the first half keeps every fragment before the second half
+			if (depth > 0 || end - next < 2) {
+				return null;
 			}
+			
+			int middle = (next + end) >>> 1;
+			LinearFragmentSpliterator prefix = new LinearFragmentSpliterator(adjacency, starts, next, middle, limit);
+			this.next = middle;
+			
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+		
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
 		}
 	}
 	
-	private boolean hasDuplicates(List<Integer> fragmentIndex) {
-		Set<Integer> setCheck = new HashSet<>(fragmentIndex);
+	/**
+	 * Spliterator over a range of the items of a BranchedFragmentBuilder. The fragments of one item are built at once and handed out one at a time.
+	 */
+	private class BranchedFragmentSpliterator implements Spliterator<Fragment> {
+		private BranchedFragmentBuilder builder;
+		private double[] weights;
+		private long[] pieceFingerprints;
+		private int next;
+		private int end;
+		
+		private ArrayDeque<Fragment> pending;
+		private FragmentSink sink;
+		
+		public BranchedFragmentSpliterator(BranchedFragmentBuilder builder, double[] weights, long[] pieceFingerprints, int next, int end) {
+			this.builder = builder;
+			this.weights = weights;
+			this.pieceFingerprints = pieceFingerprints;
+			this.next = next;
+			this.end = end;
+			
+			this.pending = new ArrayDeque<>();
+			
+			PeptideType type = peptide.getType();
+			FragmentStore fragments = builder.fragments;
+			
+			this.sink = (kind, first, linkers, second) -> {
+				double weight;
+				if (kind == FragmentTable.CYCLIC) {
+					weight = calculateCyclicFragmentWeight(weights[first], type);
+				}
+				else {
+					weight = calculateBranchedFragmentWeight(first, linkers, second, fragment -> weights[fragment]);
+				}
+				
+				long fingerprint = fingerprintFragment(kind, pieceFingerprints[first], linkers, second == -1 ? 0 : pieceFingerprints[second]);
+				pending.add(new Fragment(FragmentAnalyzer.this, kind, createTokens(fragments, kind, first, linkers, second), weight, fingerprint));
+			};
+		}
 		
-		if (setCheck.size() < fragmentIndex.size()) {
+		@Override
+		public boolean tryAdvance(Consumer<? super Fragment> action) {
+			while (pending.isEmpty() && next < end) {
+				builder.build(next++, sink);
+			}
+			
+			if (pending.isEmpty()) {
+				return false;
+			}
+			
+			action.accept(pending.poll());
 			return true;
 		}
-		else {
-			return false;
+		
+		@Override
+		public Spliterator<Fragment> trySplit() {
+			if (!pending.isEmpty() || end - next < 2) {
+				return null;
+			}
+			
+			int middle = (next + end) >>> 1;
+			BranchedFragmentSpliterator prefix = new BranchedFragmentSpliterator(builder, weights, pieceFingerprints, next, middle);
+			this.next = middle;
+			
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+		
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
 		}
 	}
 	
 	/**
-	 * Populate the amino acid weight map using the weights.csv file.
+	 * Spliterator over the connected fragments of a peptide with more than one cycle whose smallest node is in a range of nodes.
 	 * 
-	 * @return
+	 * Connected sets are enumerated from their smallest node, the root, by extending the current set with one node of its extension at a time. The
+	 * extension of a set holds the nodes greater than the root that can still be added. When a node is added, its neighbors greater than the root
+	 * that are neither in the set nor next to it join the extension of the new set. This finds every connected set exactly once. The recursion
+	 * is replaced by an explicit stack of sets and of their extensions, so the walk can stop after every fragment. The spliterator only splits
+	 * between roots.
 	 */
-	private Map<Character, Double> createAminoAcideWeightMap() {
-		Map<Character, Double> aminoAcidWeight = new HashMap<>();
+	private class ConnectedFragmentSpliterator implements Spliterator<Fragment> {
+		private int[][] neighbors;
+		private int next;
+		private int end;
+		private double limit;
+		
+		private int root;
+		private int[] set;
+		private int size;
+		private double[] setWeights;
+		private int[] sortedSet;
+		private boolean closedPending;
+		
+		// Number of nodes of the set that are the node or next to it
+		private int[] covered;
 		
-		InputStream weightsStream = FragmentAnalyzer.class.getResourceAsStream("/weights.csv");
+		// The extension of the set of size d is extensions[extensionStarts[d]] to extensions[extensionEnds[d] - 1]
+		private int[] extensions;
+		private int[] extensionStarts;
+		private int[] extensionEnds;
+		
+		public ConnectedFragmentSpliterator(int[][] neighbors, int next, int end, double limit) {
+			this.neighbors = neighbors;
+			this.next = next;
+			this.end = end;
+			this.limit = limit;
+			
+			int nodes = neighbors.length;
+			
+			this.set = new int[nodes];
+			this.setWeights = new double[nodes + 1];
+			this.sortedSet = new int[nodes];
+			this.covered = new int[nodes];
+			this.extensions = new int[nodes * (nodes + 1)];
+			this.extensionStarts = new int[nodes + 1];
+			this.extensionEnds = new int[nodes + 1];
+		}
 		
-		try {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(weightsStream));
-			String line = reader.readLine(); // ignore header
-			while ((line = reader.readLine()) != null) {
+		/**
+		 * Finds the next connected set and leaves its nodes in increasing order in the first size nodes of sortedSet. Returns false when every root
+		 * is done.
+		 * 
+		 * @return
+		 */
+		public boolean advance() {
+			while (true) {
+				if (size == 0) {
+					if (next >= end) {
+						return false;
+					}
+					
+					root = next++;
+					set[0] = root;
+					setWeights[1] = getStartWeight(root, limit);
+					size = 1;
+					
+					extensionStarts[1] = 0;
+					extensionEnds[1] = 0;
+					for (int neighbor : neighbors[root]) {
+						if (neighbor > root) {
+							extensions[extensionEnds[1]++] = neighbor;
+						}
+					}
+					
+					cover(root, 1);
+				}
+				
+				// Backtracking step once every node of the extension has been tried
+				if (extensionEnds[size] == extensionStarts[size]) {
+					cover(set[size - 1], -1);
+					size--;
+					continue;
+				}
+				
+				int node = extensions[--extensionEnds[size]];
+				
+				// Every set with the node is at least as heavy (see createPruningLimit)
+				double weight = getTargetWeight(setWeights[size], node, limit);
+				if (weight > limit) {
+					continue;
+				}
+				
+				// The extension of the new set is the rest of the current extension, and the exclusive neighbors of the node
+				int start = extensionEnds[size];
+				int extensionEnd = start + (extensionEnds[size] - extensionStarts[size]);
+				System.arraycopy(extensions, extensionStarts[size], extensions, start, extensionEnds[size] - extensionStarts[size]);
+				
+				for (int neighbor : neighbors[node]) {
+					if (neighbor > root && covered[neighbor] == 0) {
+						extensions[extensionEnd++] = neighbor;
+					}
+				}
+				
+				cover(node, 1);
+				set[size] = node;
+				size++;
 				
-				String[] split = line.split(",");
-				char symbol = split[0].charAt(0);
-				double weight = Double.parseDouble(split[1]);
+				setWeights[size] = weight;
+				extensionStarts[size] = start;
+				extensionEnds[size] = extensionEnd;
 				
-				aminoAcidWeight.put(symbol, weight);
+				sortSet();
+				return true;
+			}
+		}
+		
+		/**
+		 * Adds the change to the count of the node and of its neighbors.
+		 * 
+		 * @param node
+		 * @param change
+		 */
+		private void cover(int node, int change) {
+			covered[node] += change;
+			
+			for (int neighbor : neighbors[node]) {
+				covered[neighbor] += change;
+			}
+		}
+		
+		/**
+		 * Copies the set into sortedSet in increasing order.
+		 */
+		private void sortSet() {
+			System.arraycopy(set, 0, sortedSet, 0, size);
+			Arrays.sort(sortedSet, 0, size);
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super Fragment> action) {
+			// The closed fragment of the last set, if it has a ring, follows its open fragment
+			if (closedPending) {
+				closedPending = false;
+				action.accept(createFragment(FragmentTable.CYCLIC));
+				return true;
+			}
+			
+			if (!advance()) {
+				return false;
 			}
 			
-			reader.close();
+			action.accept(createFragment(FragmentTable.CONNECTED));
+			closedPending = hasRing(neighbors, sortedSet, size);
+			return true;
+		}
+		
+		private Fragment createFragment(byte kind) {
+			boolean closed = kind == FragmentTable.CYCLIC;
+			
+			int[] tokens = createConnectedTokens(sortedSet, size, closed);
+			long fingerprint = fingerprintFragment(kind, fingerprintPiece(sortedSet, size), 0, 0);
+			
+			return new Fragment(FragmentAnalyzer.this, kind, tokens, calculateConnectedWeight(neighbors, sortedSet, size, closed), fingerprint);
 		}
-		catch (IOException e) {
-			e.printStackTrace();
+		
+		@Override
+		public Spliterator<Fragment> trySplit() {
+			// Only split before the sets of a root are enumerated, so the first half keeps every fragment before the second half
+			if (size > 0 || end - next < 2) {
+				return null;
+			}
+			
+			int middle = (next + end) >>> 1;
+			ConnectedFragmentSpliterator prefix = new ConnectedFragmentSpliterator(neighbors, next, middle, limit);
+			this.next = middle;
+			
+			return prefix;
 		}
 		
-		if (this.peptide.getCustomWeight() != 0) {
-			aminoAcidWeight.put('%', this.peptide.getCustomWeight());
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
 		}
 		
-		return aminoAcidWeight;
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		}
 	}
 	
 }
@@ -0,0 +1,43 @@
+package com.github.juliomarcopineda;
+
+/**
+ * FragmentLibrary is the finished result of the analysis of a peptide: the theoretical molecular weights of all its fragments in increasing order,
+ * together with the tokens of every fragment (see Fragment.getTokens()). It needs neither the fragment store nor the fragment table, so it can be
+ * saved and loaded again instead of finding and weighing all the fragments of the peptide, see FragmentAnalyzer.loadLibrary.
+ *
+ * ArrayFragmentLibrary keeps a library on the heap, and MappedFragmentLibrary reads it from a memory-mapped file.
+ *
+ * @author Julio Pineda
+ *
+ */
+public interface FragmentLibrary {
+	/**
+	 * Returns the number of fragments in the library.
+	 * 
+	 * @return
+	 */
+	int size();
+	
+	/**
+	 * Returns the theoretical molecular weight of the i-th lightest fragment.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	double getMass(int i);
+	
+	/**
+	 * Returns the tokens of the i-th lightest fragment.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	int[] getTokens(int i);
+	
+	/**
+	 * Returns the mass index of the library, where the position of every fragment is its position in the library.
+	 * 
+	 * @return
+	 */
+	FragmentMassIndex createMassIndex();
+}
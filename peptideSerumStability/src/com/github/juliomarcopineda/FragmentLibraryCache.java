@@ -0,0 +1,296 @@
+package com.github.juliomarcopineda;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.juliomarcopineda.peptide.Peptide;
+
+/**
+ * FragmentLibraryCache keeps the fragment libraries of analyzed peptides in a directory, so that a peptide analyzed before is loaded instead of
+ * finding and weighing all its fragments again.
+ *
+ * A library is identified by a key made of ALGORITHM_VERSION, the sequence, the type, the connections and the custom weight of the peptide, together
+ * with every weight of the residue registry. A peptide defined differently, or analyzed after weights.csv or the way fragments are found changed,
+ * gets a new key and is analyzed again. The file of a library is named after a hash of its key, and the key itself is written in the header of the
+ * file to be compared when the file is loaded.
+ *
+ * The libraries are written in the layout of MappedFragmentLibrary and mapped into memory when they are loaded, so a loaded library is searched in
+ * the file without being copied to the heap, and the JVMs of the host that load the same library share its pages.
+ *
+ * The total size of the libraries is kept under a maximum: once it is exceeded, the libraries that were used the longest time ago are deleted.
+ * A file that cannot be read is treated as missing and deleted.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class FragmentLibraryCache {
+	public static final long DEFAULT_MAX_BYTES = 1L << 30;
+	
+	/**
+	 * Version of the fragments of an analysis, part of every key. It must be increased whenever the fragments found for a peptide, their weights or
+	 * their tokens change, so that the libraries of the previous version are analyzed again instead of being loaded.
+	 * 
+	 * Version 2 closes the rings of the connected fragments of peptides with more than one cycle, and weighs them like the fragments of peptides with
+	 * one cycle. Version 3 adds up the weights of short fragments node by node instead of from prefix sums, which changes their last digits.
+	 */
+	public static final int ALGORITHM_VERSION = 3;
+	
+	private static final String EXTENSION = ".fragments";
+	
+	private Path directory;
+	private long maxBytes;
+	private ResidueMassRegistry residueMasses;
+	
+	/**
+	 * Constructor that accepts the directory of the cache, with a maximum size of DEFAULT_MAX_BYTES.
+	 * 
+	 * @param directory
+	 */
+	public FragmentLibraryCache(Path directory) {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+	
+	/**
+	 * Constructor that accepts the directory of the cache and the maximum total size of its files in bytes.
+	 * 
+	 * @param directory
+	 * @param maxBytes
+	 */
+	public FragmentLibraryCache(Path directory, long maxBytes) {
+		this(directory, maxBytes, ResidueMassRegistry.getDefault());
+	}
+	
+	/**
+	 * Constructor that accepts the directory of the cache, the maximum total size of its files in bytes and the residue registry the peptides are
+	 * analyzed with.
+	 * 
+	 * @param directory
+	 * @param maxBytes
+	 * @param residueMasses
+	 */
+	public FragmentLibraryCache(Path directory, long maxBytes, ResidueMassRegistry residueMasses) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.residueMasses = residueMasses;
+	}
+	
+	/**
+	 * Returns the residue registry the peptides are analyzed with.
+	 * 
+	 * @return
+	 */
+	public ResidueMassRegistry getResidueMasses() {
+		return residueMasses;
+	}
+	
+	/**
+	 * Returns an analyzer of the peptide with the weights of all its fragments. The fragments are loaded from the cache if the peptide was analyzed
+	 * before with the same residue registry; otherwise, they are found and weighed, then saved in the cache.
+	 * 
+	 * The whole library of the peptide is cached, so the analyzer is not limited to any mass spec data.
+	 * 
+	 * @param peptide
+	 * @return
+	 */
+	public FragmentAnalyzer analyze(Peptide peptide) {
+		FragmentAnalyzer analyzer = new FragmentAnalyzer(peptide, this.residueMasses);
+		
+		String key = createKey(peptide, this.residueMasses);
+		Path file = this.directory.resolve(hash(key) + EXTENSION);
+		
+		FragmentLibrary library = load(file, key);
+		if (library != null) {
+			return analyzer.loadLibrary(library);
+		}
+		
+		analyzer.findAllFragments()
+			.measureAllFragmentWeights();
+		
+		save(file, key, analyzer.createLibrary());
+		evict(file);
+		
+		return analyzer;
+	}
+	
+	/**
+	 * Returns the key of a peptide analyzed with the given residue registry.
+	 * 
+	 * @param peptide
+	 * @param residueMasses
+	 * @return
+	 */
+	public static String createKey(Peptide peptide, ResidueMassRegistry residueMasses) {
+		StringBuilder key = new StringBuilder();
+		
+		key.append('v')
+			.append(ALGORITHM_VERSION)
+			.append('|')
+			.append(peptide.getSequence())
+			.append('|')
+			.append(peptide.getType())
+			.append('|')
+			.append(peptide.getConnections())
+			.append('|')
+			.append(Double.toString(peptide.getCustomWeight()))
+			.append('|');
+		
+		for (Map.Entry<Character, Double> entry : residueMasses.asMap()
+			.entrySet()) {
+			key.append(entry.getKey())
+				.append('=')
+				.append(Double.toString(entry.getValue()))
+				.append(';');
+		}
+		
+		return key.toString();
+	}
+	
+	private static String hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+				.digest(key.getBytes(StandardCharsets.UTF_8));
+			
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 16; i++) {
+				hex.append(String.format("%02x", digest[i]));
+			}
+			
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Returns the library saved in the file for the key, or null if there is none. A library that is loaded is marked as used now. A file that
+	 * cannot be loaded, because it is corrupt or was written for another key, is a cache miss and is deleted.
+	 * 
+	 * @param file
+	 * @param key
+	 * @return
+	 */
+	private FragmentLibrary load(Path file, String key) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		
+		try {
+			FragmentLibrary library = MappedFragmentLibrary.open(file, key);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			
+			return library;
+		}
+		catch (IOException | RuntimeException e) {
+			delete(file);
+			return null;
+		}
+	}
+	
+	/**
+	 * Saves the library in the file for the key. The library is written to a temporary file first and then moved, so that another process never
+	 * reads a library that is only partly written. The temporary file is deleted if the library cannot be written or moved.
+	 * 
+	 * @param file
+	 * @param key
+	 * @param library
+	 */
+	private void save(Path file, String key, FragmentLibrary library) {
+		try {
+			Files.createDirectories(this.directory);
+			
+			Path temporaryFile = Files.createTempFile(this.directory, "library", ".tmp");
+			try {
+				MappedFragmentLibrary.write(library, key, temporaryFile);
+				
+				try {
+					Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (AtomicMoveNotSupportedException e) {
+					Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			finally {
+				// Already moved unless the write or the move failed
+				delete(temporaryFile);
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Deletes the libraries used the longest time ago until the total size of the cache is at most the maximum. The library that was just saved is
+	 * kept.
+	 * 
+	 * @param keep
+	 */
+	private synchronized void evict(Path keep) {
+		List<Path> files = new ArrayList<>();
+		Map<Path, Long> lastUsed = new HashMap<>();
+		long totalBytes = 0;
+		
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + EXTENSION)) {
+			for (Path file : stream) {
+				files.add(file);
+				lastUsed.put(file, Files.getLastModifiedTime(file)
+					.toMillis());
+				totalBytes += Files.size(file);
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		if (totalBytes <= this.maxBytes) {
+			return;
+		}
+		
+		files.sort(Comparator.comparing(lastUsed::get));
+		
+		for (Path file : files) {
+			if (totalBytes <= this.maxBytes) {
+				break;
+			}
+			
+			if (file.equals(keep)) {
+				continue;
+			}
+			
+			try {
+				long bytes = Files.size(file);
+				
+				Files.delete(file);
+				totalBytes -= bytes;
+			}
+			catch (IOException e) {
+				// Already deleted by another process
+			}
+		}
+	}
+	
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (IOException e) {
+			// Deleted again by the next failed load or save
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.github.juliomarcopineda;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * FragmentMassIndex is a sorted index of the theoretical molecular weights of the fragments of a peptide. The weights are kept in a primitive array
+ * sorted in increasing order together with a parallel array of the positions of the fragments in the FragmentTable, so that all the fragments
+ * within a threshold of a mass spectrometry measurement can be found with a binary search instead of scanning every fragment.
+ *
+ * The weights of a FragmentLibrary are already sorted and the positions of its fragments are their positions in the library, so the index of a
+ * library has no array of positions. The weights are read through a DoubleBuffer, which wraps the array of the weights on the heap or is the
+ * mapped file of a MappedFragmentLibrary, so both are searched by the same code.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class FragmentMassIndex {
+	private DoubleBuffer masses;
+	private int[] fragments; // null when the position of the i-th lightest fragment is i
+	private int size;
+	
+	/**
+	 * Constructor that builds the index from the weights of the fragment table.
+	 * 
+	 * @param table
+	 */
+	public FragmentMassIndex(FragmentTable table) {
+		int size = table.size();
+		
+		int[] fragments = new int[size];
+		for (int i = 0; i < size; i++) {
+			fragments[i] = i;
+		}
+		
+		// Stable sort by weight, so that fragments with equal weights stay in the order of the table
+		sort(fragments, new int[size], 0, size, table);
+		
+		double[] masses = new double[size];
+		for (int i = 0; i < size; i++) {
+			masses[i] = table.getMass(fragments[i]);
+		}
+		
+		this.masses = DoubleBuffer.wrap(masses);
+		this.fragments = fragments;
+		this.size = size;
+	}
+	
+	/**
+	 * Constructor for weights that are already sorted in increasing order, where the position of the i-th lightest fragment is i.
+	 * 
+	 * @param sortedMasses
+	 */
+	public FragmentMassIndex(double[] sortedMasses) {
+		this(DoubleBuffer.wrap(sortedMasses));
+	}
+	
+	/**
+	 * Constructor for weights that are already sorted in increasing order in a buffer, for example the weights of a mapped file, where the position
+	 * of the i-th lightest fragment is i. The weights are the ones between the position and the limit of the buffer.
+	 * 
+	 * @param sortedMasses
+	 */
+	public FragmentMassIndex(DoubleBuffer sortedMasses) {
+		this.masses = sortedMasses.slice();
+		this.size = this.masses.remaining();
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public double getMass(int i) {
+		return masses.get(i);
+	}
+	
+	/**
+	 * Returns the position in the fragment table of the i-th lightest fragment.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	public int getFragment(int i) {
+		return fragments == null ? i : fragments[i];
+	}
+	
+	/**
+	 * Returns the position of the first fragment whose weight is not below the mass spec data by more than the threshold.
+	 * 
+	 * @param massSpecData
+	 * @param threshold
+	 * @return
+	 */
+	public int lowerBound(double massSpecData, double threshold) {
+		int low = 0;
+		int high = size;
+		
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			
+			if (massSpecData - masses.get(mid) > threshold) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * Returns the position after the last fragment whose weight is not above the mass spec data by more than the threshold.
+	 * 
+	 * @param massSpecData
+	 * @param threshold
+	 * @return
+	 */
+	public int upperBound(double massSpecData, double threshold) {
+		int low = 0;
+		int high = size;
+		
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			
+			if (masses.get(mid) - massSpecData <= threshold) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * Given mass spec data sorted in increasing order and a threshold, finds the range of fragments within the threshold of every measurement.
+	 * The measurements and the sorted weights are swept together in a single merge pass, so the whole list costs linear time instead of one
+	 * search per measurement.
+	 * 
+	 * The fragments matching sortedMassSpecData[i] are the positions from starts[i] (inclusive) to ends[i] (exclusive).
+	 * 
+	 * @param sortedMassSpecData
+	 * @param threshold
+	 * @param starts
+	 * @param ends
+	 */
+	public void matchAll(double[] sortedMassSpecData, double threshold, int[] starts, int[] ends) {
+		int start = 0;
+		int end = 0;
+		
+		for (int i = 0; i < sortedMassSpecData.length; i++) {
+			double data = sortedMassSpecData[i];
+			
+			// Both ends of the window only move forward as the mass spec data increases
+			while (start < size && data - masses.get(start) > threshold) {
+				start++;
+			}
+			
+			if (end < start) {
+				end = start;
+			}
+			
+			while (end < size && masses.get(end) - data <= threshold) {
+				end++;
+			}
+			
+			starts[i] = start;
+			ends[i] = end;
+		}
+	}
+	
+	/**
+	 * Merge sort of the fragment positions from start (inclusive) to end (exclusive) by their weight in the table.
+	 * 
+	 * @param fragments
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @param table
+	 */
+	private static void sort(int[] fragments, int[] buffer, int start, int end, FragmentTable table) {
+		if (end - start < 2) {
+			return;
+		}
+		
+		int mid = (start + end) >>> 1;
+		sort(fragments, buffer, start, mid, table);
+		sort(fragments, buffer, mid, end, table);
+		
+		// Already in order
+		if (table.getMass(fragments[mid - 1]) <= table.getMass(fragments[mid])) {
+			return;
+		}
+		
+		System.arraycopy(fragments, start, buffer, start, end - start);
+		
+		int left = start;
+		int right = mid;
+		for (int i = start; i < end; i++) {
+			if (right >= end || (left < mid && table.getMass(buffer[left]) <= table.getMass(buffer[right]))) {
+				fragments[i] = buffer[left++];
+			}
+			else {
+				fragments[i] = buffer[right++];
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.github.juliomarcopineda;
+
+/**
+ * This class represents a single match between a mass spectrometry measurement and a fragment whose theoretical molecular weight is within the
+ * threshold of the measurement. The ion form is the form in which the fragment explains the measurement, see IonModel. The isotope score is NaN
+ * until the match is scored by an IsotopeScorer.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public class FragmentMatch {
+	private double massSpecData;
+	private String fragment;
+	private double weight;
+	private IonForm ionForm;
+	private double isotopeScore;
+	
+	public FragmentMatch(double massSpecData, String fragment, double weight) {
+		this(massSpecData, fragment, weight, IonForm.NEUTRAL);
+	}
+	
+	public FragmentMatch(double massSpecData, String fragment, double weight, IonForm ionForm) {
+		this(massSpecData, fragment, weight, ionForm, Double.NaN);
+	}
+	
+	public FragmentMatch(double massSpecData, String fragment, double weight, IonForm ionForm, double isotopeScore) {
+		this.massSpecData = massSpecData;
+		this.fragment = fragment;
+		this.weight = weight;
+		this.ionForm = ionForm;
+		this.isotopeScore = isotopeScore;
+	}
+	
+	public double getMassSpecData() {
+		return massSpecData;
+	}
+	
+	public String getFragment() {
+		return fragment;
+	}
+	
+	public double getWeight() {
+		return weight;
+	}
+	
+	public IonForm getIonForm() {
+		return ionForm;
+	}
+	
+	public double getIsotopeScore() {
+		return isotopeScore;
+	}
+	
+	/**
+	 * Returns a copy of the match with the given isotope score.
+	 * 
+	 * @param isotopeScore
+	 * @return
+	 */
+	public FragmentMatch withIsotopeScore(double isotopeScore) {
+		return new FragmentMatch(massSpecData, fragment, weight, ionForm, isotopeScore);
+	}
+}
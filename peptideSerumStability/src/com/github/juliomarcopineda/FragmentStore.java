@@ -0,0 +1,253 @@
+package com.github.juliomarcopineda;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * FragmentStore is a compact store of the fragments found while walking the graph of a peptide. Every fragment is a path of node indices and is
+ * identified by its position in the store.
+ *
+ * Linear fragments (consecutive amino acids of the sequence in increasing order) are stored only as their start index and length. Any other path
+ * of the graph is copied into one shared int array and stored as its offset and length in that array. The nodes of a fragment are read through the
+ * accessors of this class, so no fragment is ever boxed into a list.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class FragmentStore {
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private int size;
+	private int[] offsets; // arena offset of a path, or -(start + 1) of a linear fragment
+	private int[] lengths;
+	
+	private int[] arena;
+	private int arenaSize;
+	
+	public FragmentStore() {
+		this.offsets = new int[INITIAL_CAPACITY];
+		this.lengths = new int[INITIAL_CAPACITY];
+		this.arena = new int[INITIAL_CAPACITY];
+	}
+	
+	/**
+	 * Returns the number of fragments in the store.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the number of nodes of the fragment.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	public int length(int fragment) {
+		return lengths[fragment];
+	}
+	
+	/**
+	 * Returns true if the fragment is made of consecutive amino acids of the sequence in increasing order.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	public boolean isLinear(int fragment) {
+		return offsets[fragment] < 0;
+	}
+	
+	/**
+	 * Returns the node at the given position of the fragment.
+	 * 
+	 * @param fragment
+	 * @param position
+	 * @return
+	 */
+	public int get(int fragment, int position) {
+		int offset = offsets[fragment];
+		
+		if (offset < 0) {
+			return -offset - 1 + position;
+		}
+		else {
+			return arena[offset + position];
+		}
+	}
+	
+	public int first(int fragment) {
+		return get(fragment, 0);
+	}
+	
+	public int last(int fragment) {
+		return get(fragment, lengths[fragment] - 1);
+	}
+	
+	/**
+	 * Returns the first position of the node in the fragment, or -1 if the fragment does not contain the node.
+	 * 
+	 * @param fragment
+	 * @param node
+	 * @return
+	 */
+	public int indexOf(int fragment, int node) {
+		int length = lengths[fragment];
+		
+		for (int i = 0; i < length; i++) {
+			if (get(fragment, i) == node) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	public boolean contains(int fragment, int node) {
+		return indexOf(fragment, node) != -1;
+	}
+	
+	/**
+	 * Copies the nodes of the fragment to the beginning of the given array and returns the array.
+	 * 
+	 * @param fragment
+	 * @param nodes
+	 * @return
+	 */
+	public int[] getNodes(int fragment, int[] nodes) {
+		int offset = offsets[fragment];
+		int length = lengths[fragment];
+		
+		if (offset < 0) {
+			for (int i = 0; i < length; i++) {
+				nodes[i] = -offset - 1 + i;
+			}
+		}
+		else {
+			System.arraycopy(arena, offset, nodes, 0, length);
+		}
+		
+		return nodes;
+	}
+	
+	/**
+	 * Adds the first length nodes of the path as a new fragment and returns its position in the store.
+	 * 
+	 * @param path
+	 * @param length
+	 * @return
+	 */
+	public int add(int[] path, int length) {
+		ensureCapacity(size + 1);
+		
+		boolean linear = true;
+		for (int i = 1; i < length && linear; i++) {
+			linear = path[i] == path[i - 1] + 1;
+		}
+		
+		if (linear) {
+			offsets[size] = -path[0] - 1;
+		}
+		else {
+			if (arenaSize + length > arena.length) {
+				arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+			}
+			
+			System.arraycopy(path, 0, arena, arenaSize, length);
+			offsets[size] = arenaSize;
+			arenaSize += length;
+		}
+		
+		lengths[size] = length;
+		
+		return size++;
+	}
+	
+	/**
+	 * Removes the last fragment added to the store.
+	 */
+	public void removeLast() {
+		size--;
+		
+		if (offsets[size] >= 0) {
+			arenaSize -= lengths[size];
+		}
+	}
+	
+	/**
+	 * Appends all the fragments of the other store, in order, to this store.
+	 * 
+	 * @param other
+	 */
+	public void addAll(FragmentStore other) {
+		ensureCapacity(size + other.size);
+		
+		if (arenaSize + other.arenaSize > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + other.arenaSize));
+		}
+		
+		System.arraycopy(other.arena, 0, arena, arenaSize, other.arenaSize);
+		
+		for (int i = 0; i < other.size; i++) {
+			int offset = other.offsets[i];
+			
+			offsets[size + i] = offset < 0 ? offset : offset + arenaSize;
+			lengths[size + i] = other.lengths[i];
+		}
+		
+		size += other.size;
+		arenaSize += other.arenaSize;
+	}
+	
+	/**
+	 * Returns the nodes of the fragment as a new list.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	public List<Integer> toList(int fragment) {
+		int length = lengths[fragment];
+		
+		List<Integer> nodes = new ArrayList<>(length);
+		for (int i = 0; i < length; i++) {
+			nodes.add(get(fragment, i));
+		}
+		
+		return nodes;
+	}
+	
+	/**
+	 * Returns a read-only view of the store as a list of fragments. Every fragment is converted into a list when it is accessed.
+	 * 
+	 * @return
+	 */
+	public List<List<Integer>> asList() {
+		return new AbstractList<List<Integer>>() {
+			@Override
+			public List<Integer> get(int fragment) {
+				if (fragment < 0 || fragment >= size) {
+					throw new IndexOutOfBoundsException("Fragment: " + fragment + ", Size: " + size);
+				}
+				
+				return toList(fragment);
+			}
+			
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if (capacity > offsets.length) {
+			int newCapacity = Math.max(offsets.length * 2, capacity);
+			
+			offsets = Arrays.copyOf(offsets, newCapacity);
+			lengths = Arrays.copyOf(lengths, newCapacity);
+		}
+	}
+}
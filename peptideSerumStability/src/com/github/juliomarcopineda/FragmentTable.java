@@ -0,0 +1,121 @@
+package com.github.juliomarcopineda;
+
+import java.util.Arrays;
+
+/**
+ * FragmentTable holds every fragment of a peptide that can be suggested, together with its theoretical molecular weight. A fragment is identified
+ * by its position in the table and is described only by indices into the FragmentStore:
+ *
+ * A linear fragment is a fragment of the store.
+ * A branched fragment is a fragment of the store, followed by a number of linker symbols and optionally by a second fragment of the store.
+ * A cyclic fragment is a fragment of the store closed by the linker.
+ * A connected fragment is a fragment of the store whose nodes, in increasing order, are a connected set of the graph of a peptide with more than
+ * one cycle. When the set has a ring, it is followed by a cyclic fragment of the same fragment of the store: the set with every bond between its
+ * nodes.
+ *
+ * The String representation of a fragment is only built when it is needed, see FragmentAnalyzer.getFragmentString(int).
+ *
+ * @author Julio Pineda
+ *
+ */
+public class FragmentTable {
+	public static final byte LINEAR = 0;
+	public static final byte BRANCHED = 1;
+	public static final byte CYCLIC = 2;
+	public static final byte CONNECTED = 3;
+	
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private int size;
+	private byte[] kinds;
+	private int[] firsts;
+	private int[] seconds;
+	private byte[] linkers;
+	private double[] masses;
+	
+	public FragmentTable() {
+		this.kinds = new byte[INITIAL_CAPACITY];
+		this.firsts = new int[INITIAL_CAPACITY];
+		this.seconds = new int[INITIAL_CAPACITY];
+		this.linkers = new byte[INITIAL_CAPACITY];
+		this.masses = new double[INITIAL_CAPACITY];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public byte getKind(int fragment) {
+		return kinds[fragment];
+	}
+	
+	/**
+	 * Returns the position in the fragment store of the first (or only) linear fragment of the fragment.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	public int getFirst(int fragment) {
+		return firsts[fragment];
+	}
+	
+	/**
+	 * Returns the position in the fragment store of the second linear fragment of a branched fragment, or -1 if there is none.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	public int getSecond(int fragment) {
+		return seconds[fragment];
+	}
+	
+	/**
+	 * Returns the number of linker symbols between the pieces of a branched fragment.
+	 * 
+	 * @param fragment
+	 * @return
+	 */
+	public int getLinkers(int fragment) {
+		return linkers[fragment];
+	}
+	
+	public double getMass(int fragment) {
+		return masses[fragment];
+	}
+	
+	public int addLinear(int fragment, double mass) {
+		return add(LINEAR, fragment, -1, 0, mass);
+	}
+	
+	public int addBranched(int first, int linkers, int second, double mass) {
+		return add(BRANCHED, first, second, linkers, mass);
+	}
+	
+	public int addCyclic(int fragment, double mass) {
+		return add(CYCLIC, fragment, -1, 0, mass);
+	}
+	
+	public int addConnected(int fragment, double mass) {
+		return add(CONNECTED, fragment, -1, 0, mass);
+	}
+	
+	private int add(byte kind, int first, int second, int linker, double mass) {
+		if (size == kinds.length) {
+			int capacity = kinds.length * 2;
+			
+			kinds = Arrays.copyOf(kinds, capacity);
+			firsts = Arrays.copyOf(firsts, capacity);
+			seconds = Arrays.copyOf(seconds, capacity);
+			linkers = Arrays.copyOf(linkers, capacity);
+			masses = Arrays.copyOf(masses, capacity);
+		}
+		
+		kinds[size] = kind;
+		firsts[size] = first;
+		seconds[size] = second;
+		linkers[size] = (byte) linker;
+		masses[size] = mass;
+		
+		return size++;
+	}
+}
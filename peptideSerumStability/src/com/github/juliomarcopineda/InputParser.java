@@ -1,13 +1,22 @@
 package com.github.juliomarcopineda;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
 
 import com.github.juliomarcopineda.peptide.Peptide;
 import com.github.juliomarcopineda.peptide.PeptideType;
@@ -16,17 +25,24 @@ import com.github.juliomarcopineda.peptide.PeptideType;
  * This class parses through the designated input text format for the peptide serum stability analysis. The general format as follows:
  * 
  * Line 0: [peptide sequence] [peptide type] [optional: first connection index] [optional: second connection index] ... (more indices if desired).
- * Line 1: Mass spectrometry data delimited with white space.
+ * Line 1: Mass spectrometry data delimited with white space, or "@" followed by the path of a file exported by the mass spectrometer (mzML, MGF or a
+ * plain peak list, see SpectrumReader). A relative path is relative to the directory of the input file. The path can be followed by "#" and the
+ * scan number of the spectrum to read, for example "@run.mzML#12", which is required if the file has more than one spectrum. The intensities of the
+ * peaks of a spectrum file are kept with the peptide for the isotope scores, unless they are all 0.
  * 
- * More lines can be added if more sequences want to be analyzed.
+ * More lines can be added if more sequences want to be analyzed. The input file can be compressed with gzip.
  * 
  * The peptide type can have the following valid options: linear, disulfide, dfbp and amide.
  * If the peptide type is not linear, the indices afterwards must be even in number. The index is assumed to be zero-index.
+ * With more than two indices, every pair of indices (first and second, third and fourth, and so on) closes its own cycle.
  * 
  * @author Julio Pineda
  *
  */
 public class InputParser {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Object END_OF_INPUT = new Object();
+	
 	private String inputFile;
 	
 	private List<Peptide> peptides;
@@ -57,64 +73,302 @@ public class InputParser {
 		// Initialize array list of peptides
 		List<Peptide> peptides = new ArrayList<>();
 		
-		try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
+		try (BufferedReader reader = openReader()) {
+			readPeptides(reader, peptides::add);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		this.peptides = peptides;
+		
+		return this;
+	}
+	
+	/**
+	 * Starts parsing the input text file on a background thread and returns the peptides in the order of the file, as soon as they are parsed. Unlike
+	 * parse(), the peptides are not kept: at most capacity peptides are parsed ahead of the peptides taken from the iterator, so the memory used does
+	 * not depend on the size of the file.
+	 * 
+	 * An error while reading or parsing the file is thrown by the iterator once it reaches the peptide that could not be parsed, as an
+	 * UncheckedIOException or an IllegalArgumentException. The background thread is a daemon thread, so an iterator that is not read to the end does
+	 * not keep the JVM running.
+	 * 
+	 * @param capacity
+	 * @return
+	 */
+	public Iterator<Peptide> stream(int capacity) {
+		BlockingQueue<Object> queue = new ArrayBlockingQueue<>(capacity);
+		
+		Thread parser = new Thread(() -> {
+			Object last = END_OF_INPUT;
+			
+			try (BufferedReader reader = openReader()) {
+				readPeptides(reader, peptide -> put(queue, peptide));
+			}
+			catch (IOException e) {
+				last = new UncheckedIOException(e);
+			}
+			catch (RuntimeException e) {
+				last = e;
+			}
+			
+			put(queue, last);
+		}, "InputParser");
+		
+		parser.setDaemon(true);
+		parser.start();
+		
+		return new Iterator<Peptide>() {
+			private Object next;
 			
-			String line;
-			int lineNumber = 0;
-			while ((line = reader.readLine()) != null) {
-				if (lineNumber % 2 == 0) {
-					String[] split = line.split("\\s+");
-					
-					// Extract input arguments from text file
-					String peptideSequence = split[0];
-					PeptideType type = PeptideType.valueOf(split[1].toUpperCase());
-					List<Integer> connections = new ArrayList<>();
-					
-					if (!type.equals(PeptideType.LINEAR)) {
-						
-						for (int i = 2; i < split.length; i++) {
-							connections.add(Integer.parseInt(split[i]));
-						}
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = queue.take();
 					}
-					
-					// Build graph structure from sequence and index connections
-					Map<Integer, List<Integer>> graph = PeptideSerumStability.createGraphStructure(peptideSequence, connections, type);
-					
-					// Create Peptide object from data above
-					Peptide peptide = new Peptide();
-					peptide.setSequence(peptideSequence);
-					peptide.setType(type);
-					peptide.setConnections(connections);
-					peptide.setGraph(graph);
-					
-					// Add to list of peptides
-					peptides.add(peptide);
-				}
-				else {
-					String[] split = line.split("\\s+");
-					
-					if (split.length != 0) {
-						List<Double> massSpecData = Arrays.stream(split)
-							.mapToDouble(i -> Double.parseDouble(i))
-							.boxed()
-							.collect(Collectors.toList());
-						
-						Peptide peptide = peptides.get(peptides.size() - 1);
-						peptide.setMassSpecData(massSpecData);
+					catch (InterruptedException e) {
+						Thread.currentThread()
+							.interrupt();
+						throw new IllegalStateException("Interrupted while waiting for the input file to be parsed", e);
 					}
 				}
 				
-				lineNumber++;
+				if (next instanceof RuntimeException) {
+					throw (RuntimeException) next;
+				}
+				
+				return next != END_OF_INPUT;
 			}
 			
+			@Override
+			public Peptide next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				Peptide peptide = (Peptide) next;
+				next = null;
+				
+				return peptide;
+			}
+		};
+	}
+	
+	/**
+	 * Opens the input file for reading. A file compressed with gzip is decompressed while it is read, see SpectrumReader.open.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private BufferedReader openReader() throws IOException {
+		InputStream input = SpectrumReader.open(Paths.get(inputFile));
+		
+		return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+	
+	/**
+	 * Parses the mass spectrometry data of a line into the peptide, which is either the data itself or "@" followed by the path of a spectrum file,
+	 * optionally followed by "#" and a scan number. Only a spectrum file gives the peptide intensities.
+	 * 
+	 * @param line
+	 * @param peptide
+	 * @throws IOException
+	 */
+	private void readMassSpecData(String line, Peptide peptide) throws IOException {
+		String trimmedLine = line.trim();
+		
+		if (trimmedLine.startsWith("@")) {
+			String path = trimmedLine.substring(1)
+				.trim();
+			
+			int scan = SpectrumReader.ONLY_SPECTRUM;
+			int hash = path.lastIndexOf('#');
+			if (hash != -1 && path.substring(hash + 1)
+				.matches("\\d{1,9}")) {
+				scan = Integer.parseInt(path.substring(hash + 1));
+				path = path.substring(0, hash)
+					.trim();
+			}
+			
+			Path spectrumFile = Paths.get(path);
+			Path inputDirectory = Paths.get(inputFile)
+				.toAbsolutePath()
+				.getParent();
+			
+			if (!spectrumFile.isAbsolute() && inputDirectory != null) {
+				spectrumFile = inputDirectory.resolve(spectrumFile);
+			}
+			
+			DoubleArrayList intensities = new DoubleArrayList();
+			peptide.setMassSpecData(SpectrumReader.readMassSpecData(spectrumFile, scan, intensities));
+			
+			// A peak list without intensities reads as intensities of 0
+			for (int i = 0; i < intensities.size(); i++) {
+				if (intensities.getDouble(i) != 0) {
+					peptide.setIntensities(intensities);
+					break;
+				}
+			}
 		}
-		catch (IOException e) {
-			e.printStackTrace();
+		else {
+			peptide.setMassSpecData(parseMassSpecData(line));
 		}
+	}
+	
+	/**
+	 * Parses the lines of the reader two at a time and hands every peptide to the consumer once its mass spectrometry data is parsed. A peptide on
+	 * the last line of the file, without mass spectrometry data, is handed over as well.
+	 * 
+	 * @param reader
+	 * @param consumer
+	 * @throws IOException
+	 */
+	private void readPeptides(BufferedReader reader, Consumer<Peptide> consumer) throws IOException {
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = 0;
 		
-		this.peptides = peptides;
+		List<String> tokens = new ArrayList<>();
+		Peptide peptide = null;
 		
-		return this;
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			if (lineNumber % 2 == 0) {
+				startNanos = metrics.start();
+				peptide = parsePeptide(line, tokens);
+			}
+			else {
+				readMassSpecData(line, peptide);
+				metrics.stop(AnalysisMetrics.Phase.PARSE, startNanos);
+				
+				consumer.accept(peptide);
+				peptide = null;
+			}
+			
+			lineNumber++;
+		}
+		
+		if (peptide != null) {
+			consumer.accept(peptide);
+		}
+	}
+	
+	/**
+	 * Parses the line that defines a peptide: its sequence, its type and, unless it is linear, the indices of its connections. The tokens list is
+	 * reused between lines.
+	 * 
+	 * @param line
+	 * @param tokens
+	 * @return
+	 */
+	static Peptide parsePeptide(String line, List<String> tokens) {
+		tokenize(line, tokens);
+		
+		// Extract input arguments from text file
+		String peptideSequence = tokens.get(0);
+		PeptideType type = PeptideType.valueOf(tokens.get(1)
+			.toUpperCase());
+		List<Integer> connections = new ArrayList<>();
+		
+		if (!type.equals(PeptideType.LINEAR)) {
+			
+			for (int i = 2; i < tokens.size(); i++) {
+				connections.add(Integer.parseInt(tokens.get(i)));
+			}
+		}
+		
+		// Build graph structure from sequence and index connections
+		Map<Integer, List<Integer>> graph = PeptideSerumStability.createGraphStructure(peptideSequence, connections, type);
+		
+		// Create Peptide object from data above
+		Peptide peptide = new Peptide();
+		peptide.setSequence(peptideSequence);
+		peptide.setType(type);
+		peptide.setConnections(connections);
+		peptide.setGraph(graph);
+		
+		return peptide;
+	}
+	
+	/**
+	 * Splits the line at white space into the tokens list, without a regular expression.
+	 * 
+	 * @param line
+	 * @param tokens
+	 */
+	private static void tokenize(String line, List<String> tokens) {
+		tokens.clear();
+		
+		int start = skipWhitespace(line, 0);
+		while (start < line.length()) {
+			int end = findWhitespace(line, start);
+			tokens.add(line.substring(start, end));
+			
+			start = skipWhitespace(line, end);
+		}
+	}
+	
+	/**
+	 * Parses the mass spectrometry data of a line, delimited with white space, without a regular expression or an intermediate array of tokens.
+	 * 
+	 * @param line
+	 * @return
+	 */
+	static DoubleArrayList parseMassSpecData(String line) {
+		DoubleArrayList massSpecData = new DoubleArrayList();
+		
+		int start = skipWhitespace(line, 0);
+		while (start < line.length()) {
+			int end = findWhitespace(line, start);
+			massSpecData.addDouble(Double.parseDouble(line.substring(start, end)));
+			
+			start = skipWhitespace(line, end);
+		}
+		
+		return massSpecData;
+	}
+	
+	/**
+	 * Returns the position of the first character of the line at or after start that is not white space, or the length of the line.
+	 * 
+	 * @param line
+	 * @param start
+	 * @return
+	 */
+	private static int skipWhitespace(String line, int start) {
+		while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+			start++;
+		}
+		
+		return start;
+	}
+	
+	/**
+	 * Returns the position of the first white space of the line at or after start, or the length of the line.
+	 * 
+	 * @param line
+	 * @param start
+	 * @return
+	 */
+	private static int findWhitespace(String line, int start) {
+		while (start < line.length() && !Character.isWhitespace(line.charAt(start))) {
+			start++;
+		}
+		
+		return start;
+	}
+	
+	private static void put(BlockingQueue<Object> queue, Object item) {
+		try {
+			queue.put(item);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread()
+				.interrupt();
+			throw new IllegalStateException("Interrupted while parsing the input file", e);
+		}
 	}
 	
 	public static void main(String[] args) {
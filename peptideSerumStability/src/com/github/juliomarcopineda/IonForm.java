@@ -0,0 +1,70 @@
+package com.github.juliomarcopineda;
+
+/**
+ * IonForm is one form in which a fragment can be observed by the mass spectrometer: the fragment with a charge, the adducts that carry the charge
+ * and optionally a neutral loss, for example [M+2H]2+, [M+Na]+ or [M+H-H2O]+. The neutral form [M] is a peak that is already the molecular
+ * weight of the fragment, which is how the mass spec data has always been compared.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class IonForm {
+	public static final IonForm NEUTRAL = new IonForm("M", 1, 0, 0);
+	
+	private String name;
+	private int charge;
+	private double adductMass;
+	private double lossMass;
+	
+	/**
+	 * Constructor that accepts the name of the ion form, its charge, the total mass of its adducts and the mass of its neutral loss.
+	 * 
+	 * @param name
+	 * @param charge
+	 * @param adductMass
+	 * @param lossMass
+	 */
+	public IonForm(String name, int charge, double adductMass, double lossMass) {
+		if (charge < 1) {
+			throw new IllegalArgumentException("The charge of an ion form must be at least 1: " + name);
+		}
+		
+		this.name = name;
+		this.charge = charge;
+		this.adductMass = adductMass;
+		this.lossMass = lossMass;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getCharge() {
+		return charge;
+	}
+	
+	/**
+	 * Returns the neutral molecular weight of a fragment observed in this form at the given m/z.
+	 * 
+	 * @param mz
+	 * @return
+	 */
+	public double toNeutralMass(double mz) {
+		return mz * charge - adductMass + lossMass;
+	}
+	
+	/**
+	 * Returns the m/z at which a fragment of the given neutral molecular weight is observed in this form.
+	 * 
+	 * @param neutralMass
+	 * @return
+	 */
+	public double toMz(double neutralMass) {
+		return (neutralMass + adductMass - lossMass) / charge;
+	}
+	
+	@Override
+	public String toString() {
+		return name;
+	}
+}
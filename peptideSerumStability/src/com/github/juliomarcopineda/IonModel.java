@@ -0,0 +1,229 @@
+package com.github.juliomarcopineda;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IonModel is the list of ion forms in which the fragments of a peptide are searched in the mass spec data. Every measurement is converted into the
+ * neutral molecular weight it would have in each ion form, and all of those weights are looked up in the mass index of the fragments, so the
+ * fragments themselves are never multiplied by the number of ion forms.
+ *
+ * A model is built from charges, adducts and neutral losses: the protonated forms [M+H]+ to [M+zH]z+, the adducts [M+Na]+, [M+K]+ and [M+NH4]+ and
+ * the loss of water or ammonia from every one of those forms, for example [M+H-H2O]+. The neutral model only has the form [M], where the mass spec
+ * data already is the molecular weight of the fragments.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class IonModel {
+	private static final double PROTON = 1.007276;
+	
+	// Average masses of the charged adducts and of the neutral losses, like the molecular weights of weights.csv. Water is 18.0 like the water lost
+	// between two residues.
+	private static final Map<String, Double> ADDUCTS = new LinkedHashMap<>();
+	private static final Map<String, Double> LOSSES = new LinkedHashMap<>();
+	static {
+		ADDUCTS.put("Na", 22.99);
+		ADDUCTS.put("K", 39.10);
+		ADDUCTS.put("NH4", 18.04);
+		
+		LOSSES.put("H2O", 18.0);
+		LOSSES.put("NH3", 17.03);
+	}
+	
+	private boolean neutral;
+	private int maxCharge;
+	private List<String> adducts = new ArrayList<>();
+	private List<String> losses = new ArrayList<>();
+	
+	private List<IonForm> forms;
+	
+	/**
+	 * Returns the model with only the neutral form [M].
+	 * 
+	 * @return
+	 */
+	public static IonModel neutral() {
+		return new IonModel().withNeutral();
+	}
+	
+	/**
+	 * Parses a model from a comma separated list of ion forms, for example "M,H3,Na,-H2O":
+	 * 
+	 * M is the neutral form [M].
+	 * Hz is the protonated forms with charges 1 to z, where H alone is H1.
+	 * Na, K and NH4 are the singly charged adducts.
+	 * -H2O and -NH3 add the loss of water or ammonia to every charged form.
+	 * 
+	 * @param model
+	 * @return
+	 */
+	public static IonModel parse(String model) {
+		IonModel ionModel = new IonModel();
+		
+		for (String form : model.split(",")) {
+			form = form.trim();
+			
+			if (form.equals("M")) {
+				ionModel.withNeutral();
+			}
+			else if (form.startsWith("-")) {
+				ionModel.withLoss(form.substring(1));
+			}
+			else if (ADDUCTS.containsKey(form)) {
+				ionModel.withAdduct(form);
+			}
+			else if (form.startsWith("H")) {
+				try {
+					ionModel.withCharges(form.length() == 1 ? 1 : Integer.parseInt(form.substring(1)));
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Unknown ion form: " + form);
+				}
+			}
+			else {
+				throw new IllegalArgumentException("Unknown ion form: " + form);
+			}
+		}
+		
+		return ionModel;
+	}
+	
+	/**
+	 * Adds the neutral form [M].
+	 * 
+	 * @return
+	 */
+	public IonModel withNeutral() {
+		this.neutral = true;
+		this.forms = null;
+		
+		return this;
+	}
+	
+	/**
+	 * Adds the protonated forms with the charges 1 to maxCharge.
+	 * 
+	 * @param maxCharge
+	 * @return
+	 */
+	public IonModel withCharges(int maxCharge) {
+		if (maxCharge < 1) {
+			throw new IllegalArgumentException("The largest charge must be at least 1: " + maxCharge);
+		}
+		
+		this.maxCharge = Math.max(this.maxCharge, maxCharge);
+		this.forms = null;
+		
+		return this;
+	}
+	
+	/**
+	 * Adds the singly charged adduct Na, K or NH4.
+	 * 
+	 * @param adduct
+	 * @return
+	 */
+	public IonModel withAdduct(String adduct) {
+		if (!ADDUCTS.containsKey(adduct)) {
+			throw new IllegalArgumentException("Unknown adduct: " + adduct);
+		}
+		
+		if (!this.adducts.contains(adduct)) {
+			this.adducts.add(adduct);
+		}
+		this.forms = null;
+		
+		return this;
+	}
+	
+	/**
+	 * Adds the neutral loss H2O or NH3 to every charged form.
+	 * 
+	 * @param loss
+	 * @return
+	 */
+	public IonModel withLoss(String loss) {
+		if (!LOSSES.containsKey(loss)) {
+			throw new IllegalArgumentException("Unknown neutral loss: " + loss);
+		}
+		
+		if (!this.losses.contains(loss)) {
+			this.losses.add(loss);
+		}
+		this.forms = null;
+		
+		return this;
+	}
+	
+	/**
+	 * Returns true if the only ion form of the model is the neutral form [M].
+	 * 
+	 * @return
+	 */
+	public boolean isNeutral() {
+		return this.neutral && this.maxCharge == 0 && this.adducts.isEmpty();
+	}
+	
+	/**
+	 * Returns a read-only list of the ion forms of the model: the neutral form, then the protonated forms by increasing charge, then the adducts,
+	 * each charged form followed by its neutral losses.
+	 * 
+	 * @return
+	 */
+	public List<IonForm> getForms() {
+		if (this.forms == null) {
+			this.forms = Collections.unmodifiableList(createForms());
+		}
+		
+		return this.forms;
+	}
+	
+	private List<IonForm> createForms() {
+		List<IonForm> forms = new ArrayList<>();
+		
+		if (this.neutral) {
+			forms.add(IonForm.NEUTRAL);
+		}
+		
+		for (int charge = 1; charge <= this.maxCharge; charge++) {
+			String adduct = charge == 1 ? "+H" : "+" + charge + "H";
+			addChargedForms(forms, adduct, charge, charge * PROTON);
+		}
+		
+		for (String adduct : this.adducts) {
+			addChargedForms(forms, "+" + adduct, 1, ADDUCTS.get(adduct));
+		}
+		
+		if (forms.isEmpty()) {
+			throw new IllegalStateException("An ion model needs at least one ion form");
+		}
+		
+		return forms;
+	}
+	
+	/**
+	 * Adds the charged form with the given adducts, then the same form with every neutral loss.
+	 * 
+	 * @param forms
+	 * @param adduct
+	 * @param charge
+	 * @param adductMass
+	 */
+	private void addChargedForms(List<IonForm> forms, String adduct, int charge, double adductMass) {
+		String suffix = charge == 1 ? "]+" : "]" + charge + "+";
+		forms.add(new IonForm("[M" + adduct + suffix, charge, adductMass, 0));
+		
+		for (String loss : this.losses) {
+			forms.add(new IonForm("[M" + adduct + "-" + loss + suffix, charge, adductMass, LOSSES.get(loss)));
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return getForms().toString();
+	}
+}
@@ -0,0 +1,178 @@
+package com.github.juliomarcopineda;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * IsotopeDistribution is the relative abundance of the isotope peaks of a molecule: the monoisotopic peak, then the peaks of one, two and more extra
+ * neutrons, about 1.00336 Da apart. The abundances are scaled so that the most abundant peak is 1.
+ *
+ * The distribution of an element with n atoms is the polynomial of the abundances of its isotopes raised to the n-th power, and the distribution of
+ * a molecule is the product of the distributions of its elements. The powers are computed by repeated squaring and every product is cut to the
+ * first MAX_PEAKS peaks, so a distribution costs a few dozen small polynomial products however large the molecule is. The distributions are cached
+ * by composition and shared by every thread, since the same compositions come up for every spectrum of a peptide.
+ *
+ * @author Julio Pineda
+ *
+ */
+public final class IsotopeDistribution {
+	/**
+	 * The mass difference between two neighboring isotope peaks, the mass of a neutron in 13C.
+	 */
+	public static final double PEAK_SPACING = 1.00335;
+	
+	private static final int MAX_PEAKS = 16;
+	private static final double MIN_ABUNDANCE = 1e-4;
+	private static final int MAX_CACHED = 1 << 16;
+	
+	// Natural abundances of the isotopes of each element, by number of extra neutrons
+	private static final double[] CARBON = { 0.9893, 0.0107 };
+	private static final double[] HYDROGEN = { 0.999885, 0.000115 };
+	private static final double[] NITROGEN = { 0.99636, 0.00364 };
+	private static final double[] OXYGEN = { 0.99757, 0.00038, 0.00205 };
+	private static final double[] SULFUR = { 0.9499, 0.0075, 0.0425, 0, 0.0001 };
+	
+	private static final Map<ElementalComposition, IsotopeDistribution> CACHE = new ConcurrentHashMap<>();
+	
+	private final double[] abundances;
+	private final int mostAbundant;
+	
+	private IsotopeDistribution(double[] abundances) {
+		int mostAbundant = 0;
+		for (int i = 1; i < abundances.length; i++) {
+			if (abundances[i] > abundances[mostAbundant]) {
+				mostAbundant = i;
+			}
+		}
+		
+		double max = abundances[mostAbundant];
+		
+		// Drop the trailing peaks that are too small to be observed
+		int size = abundances.length;
+		while (size > mostAbundant + 1 && abundances[size - 1] / max < MIN_ABUNDANCE) {
+			size--;
+		}
+		
+		this.abundances = new double[size];
+		for (int i = 0; i < size; i++) {
+			this.abundances[i] = abundances[i] / max;
+		}
+		
+		this.mostAbundant = mostAbundant;
+	}
+	
+	/**
+	 * Returns the distribution of the composition, from the cache if it was already computed.
+	 * 
+	 * @param composition
+	 * @return
+	 */
+	public static IsotopeDistribution of(ElementalComposition composition) {
+		IsotopeDistribution distribution = CACHE.get(composition);
+		
+		if (distribution == null) {
+			distribution = compute(composition);
+			
+			// A bounded cache, past which distributions are computed every time
+			if (CACHE.size() < MAX_CACHED) {
+				CACHE.putIfAbsent(composition, distribution);
+			}
+		}
+		
+		return distribution;
+	}
+	
+	/**
+	 * Returns the number of peaks of the distribution.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return abundances.length;
+	}
+	
+	/**
+	 * Returns the abundance of the peak with the given number of extra neutrons, relative to the most abundant peak.
+	 * 
+	 * @param peak
+	 * @return
+	 */
+	public double getAbundance(int peak) {
+		return abundances[peak];
+	}
+	
+	/**
+	 * Returns the number of extra neutrons of the most abundant peak.
+	 * 
+	 * @return
+	 */
+	public int getMostAbundant() {
+		return mostAbundant;
+	}
+	
+	@Override
+	public String toString() {
+		return Arrays.toString(abundances);
+	}
+	
+	private static IsotopeDistribution compute(ElementalComposition composition) {
+		double[] distribution = { 1 };
+		
+		distribution = multiply(distribution, power(CARBON, composition.getCarbon()));
+		distribution = multiply(distribution, power(HYDROGEN, composition.getHydrogen()));
+		distribution = multiply(distribution, power(NITROGEN, composition.getNitrogen()));
+		distribution = multiply(distribution, power(OXYGEN, composition.getOxygen()));
+		distribution = multiply(distribution, power(SULFUR, composition.getSulfur()));
+		
+		return new IsotopeDistribution(distribution);
+	}
+	
+	/**
+	 * Raises the polynomial to the given power by repeated squaring.
+	 * 
+	 * @param polynomial
+	 * @param exponent
+	 * @return
+	 */
+	private static double[] power(double[] polynomial, int exponent) {
+		double[] result = { 1 };
+		double[] square = polynomial;
+		
+		while (exponent > 0) {
+			if ((exponent & 1) != 0) {
+				result = multiply(result, square);
+			}
+			
+			exponent >>>= 1;
+			if (exponent > 0) {
+				square = multiply(square, square);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Multiplies two polynomials, keeping only the first MAX_PEAKS coefficients.
+	 * 
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	private static double[] multiply(double[] first, double[] second) {
+		double[] product = new double[Math.min(MAX_PEAKS, first.length + second.length - 1)];
+		
+		for (int i = 0; i < first.length && i < product.length; i++) {
+			if (first[i] == 0) {
+				continue;
+			}
+			
+			for (int j = 0; j < second.length && i + j < product.length; j++) {
+				product[i + j] += first[i] * second[j];
+			}
+		}
+		
+		return product;
+	}
+}
@@ -0,0 +1,208 @@
+package com.github.juliomarcopineda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IsotopeScorer scores how well the isotope envelope of a suggested fragment is explained by the neighboring peaks of the mass spec data. A
+ * fragment whose theoretical weight matches a measurement by coincidence usually has none of its other isotope peaks in the spectrum, while a real
+ * fragment has them at the spacing of its charge.
+ *
+ * The composition of a fragment is the sum of the compositions of its symbols (see ElementalComposition) without the water lost by every bond. The
+ * number of bonds is found from the theoretical weight of the fragment, which is the sum of the weights of its symbols minus 18.0 per bond, for
+ * linear, branched and cyclic fragments alike. The composition of every symbol of the residue registry is checked against the weight of the symbol
+ * when the scorer is created, and a symbol whose composition weighs something else is estimated with averagine instead, so the composition of a
+ * fragment agrees with its weight. The isotope distribution of the composition is then placed with its most abundant peak on the matched
+ * measurement.
+ *
+ * Without intensities, the score is the share of the predicted abundance whose peaks are found in the mass spec data. With intensities, the score
+ * is the cosine similarity between the predicted abundances and the intensities of the peaks found. Both scores go from 0 to 1.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class IsotopeScorer {
+	private static final double WATER_WEIGHT = 18.0;
+	
+	private static final int SYMBOLS = 128;
+	
+	private FragmentAnalyzer analyzer;
+	private ElementalComposition[] compositions; // null for the symbols without a weight in the registry
+	
+	/**
+	 * Constructor that accepts the analyzer of the peptide of the matches, which gives the weights of the symbols of the fragments.
+	 * 
+	 * @param analyzer
+	 */
+	public IsotopeScorer(FragmentAnalyzer analyzer) {
+		this.analyzer = analyzer;
+		this.compositions = new ElementalComposition[SYMBOLS];
+		
+		for (Map.Entry<Character, Double> entry : analyzer.getResidueMasses()
+			.asMap()
+			.entrySet()) {
+			this.compositions[entry.getKey()] = ElementalComposition.forSymbol(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Returns the elemental composition of the fragment with the given String representation and theoretical weight.
+	 * 
+	 * @param fragment
+	 * @param weight
+	 * @return
+	 */
+	public ElementalComposition getComposition(String fragment, double weight) {
+		ElementalComposition composition = ElementalComposition.EMPTY;
+		double symbolWeights = 0;
+		
+		for (int i = 0; i < fragment.length(); i++) {
+			char symbol = fragment.charAt(i);
+			
+			if (symbol == '#') {
+				continue;
+			}
+			
+			double symbolWeight = this.analyzer.getSymbolWeight(symbol);
+			symbolWeights += symbolWeight;
+			
+			// The custom linker has its own weight for every peptide
+			ElementalComposition symbolComposition = symbol < SYMBOLS && symbol != '%' ? this.compositions[symbol] : null;
+			if (symbolComposition == null) {
+				symbolComposition = ElementalComposition.averagine(symbolWeight);
+			}
+			
+			composition = composition.plus(symbolComposition);
+		}
+		
+		int bonds = (int) Math.round((symbolWeights - weight) / WATER_WEIGHT);
+		
+		return bonds > 0 ? composition.minus(ElementalComposition.WATER, bonds) : composition;
+	}
+	
+	/**
+	 * Returns the matches with their isotope scores, in the same order. The mass spec data are the measurements of the spectrum of the matches and
+	 * the intensities are the intensities of the same measurements, or null if there are none.
+	 * 
+	 * @param matches
+	 * @param massSpecData
+	 * @param intensities
+	 * @param tolerance
+	 * @return
+	 */
+	public List<FragmentMatch> score(List<FragmentMatch> matches, double[] massSpecData, double[] intensities, Tolerance tolerance) {
+		int size = massSpecData.length;
+		
+		// Sort the measurements, keeping every intensity with its measurement
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (first, second) -> Double.compare(massSpecData[first], massSpecData[second]));
+		
+		double[] sortedMassSpecData = new double[size];
+		double[] sortedIntensities = intensities == null ? null : new double[size];
+		for (int i = 0; i < size; i++) {
+			sortedMassSpecData[i] = massSpecData[order[i]];
+			
+			if (intensities != null) {
+				sortedIntensities[i] = intensities[order[i]];
+			}
+		}
+		
+		List<FragmentMatch> scoredMatches = new ArrayList<>(matches.size());
+		for (FragmentMatch match : matches) {
+			scoredMatches.add(match.withIsotopeScore(score(match, sortedMassSpecData, sortedIntensities, tolerance)));
+		}
+		
+		return scoredMatches;
+	}
+	
+	/**
+	 * Returns the isotope score of a match given the measurements of its spectrum sorted in increasing order and their intensities (or null).
+	 * 
+	 * @param match
+	 * @param sortedMassSpecData
+	 * @param intensities
+	 * @param tolerance
+	 * @return
+	 */
+	public double score(FragmentMatch match, double[] sortedMassSpecData, double[] intensities, Tolerance tolerance) {
+		IsotopeDistribution distribution = IsotopeDistribution.of(getComposition(match.getFragment(), match.getWeight()));
+		
+		double data = match.getMassSpecData();
+		double spacing = IsotopeDistribution.PEAK_SPACING / match.getIonForm()
+			.getCharge();
+		
+		double found = 0;
+		double total = 0;
+		
+		double dotProduct = 0;
+		double observedNorm = 0;
+		double predictedNorm = 0;
+		
+		for (int peak = 0; peak < distribution.size(); peak++) {
+			double abundance = distribution.getAbundance(peak);
+			double position = data + (peak - distribution.getMostAbundant()) * spacing;
+			
+			int nearest = findNearest(sortedMassSpecData, position, tolerance.getWidth(position));
+			
+			total += abundance;
+			predictedNorm += abundance * abundance;
+			
+			if (nearest != -1) {
+				found += abundance;
+				
+				if (intensities != null) {
+					double intensity = intensities[nearest];
+					
+					dotProduct += abundance * intensity;
+					observedNorm += intensity * intensity;
+				}
+			}
+		}
+		
+		if (intensities == null) {
+			return found / total;
+		}
+		else if (observedNorm == 0) {
+			return 0;
+		}
+		else {
+			return dotProduct / Math.sqrt(observedNorm * predictedNorm);
+		}
+	}
+	
+	/**
+	 * Returns the position of the measurement nearest to the given m/z within the width, or -1 if there is none.
+	 * 
+	 * @param sortedMassSpecData
+	 * @param mz
+	 * @param width
+	 * @return
+	 */
+	private static int findNearest(double[] sortedMassSpecData, double mz, double width) {
+		int position = Arrays.binarySearch(sortedMassSpecData, mz);
+		
+		if (position >= 0) {
+			return position;
+		}
+		
+		int insertion = -position - 1;
+		int nearest = -1;
+		double nearestDistance = width;
+		
+		if (insertion < sortedMassSpecData.length && sortedMassSpecData[insertion] - mz <= nearestDistance) {
+			nearest = insertion;
+			nearestDistance = sortedMassSpecData[insertion] - mz;
+		}
+		
+		if (insertion > 0 && mz - sortedMassSpecData[insertion - 1] <= nearestDistance) {
+			nearest = insertion - 1;
+		}
+		
+		return nearest;
+	}
+}
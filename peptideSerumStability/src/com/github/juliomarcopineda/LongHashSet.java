@@ -0,0 +1,100 @@
+package com.github.juliomarcopineda;
+
+/**
+ * LongHashSet is a set of primitive longs, used to remember the fingerprints of the fragments already found without boxing them. The longs are
+ * kept in a single open addressing table with linear probing. Zero marks an empty slot of the table, so it is remembered on its own.
+ *
+ * The longs are expected to be well mixed already, like the fingerprints of FragmentAnalyzer, so their low bits are used as is to find their
+ * slot.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class LongHashSet {
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private long[] keys;
+	private int size;
+	private boolean containsZero;
+	
+	public LongHashSet() {
+		this.keys = new long[INITIAL_CAPACITY];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean contains(long key) {
+		if (key == 0) {
+			return containsZero;
+		}
+		
+		int mask = keys.length - 1;
+		for (int slot = (int) key & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Adds the long to the set. Returns true if the set did not contain it yet.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public boolean add(long key) {
+		if (key == 0) {
+			if (containsZero) {
+				return false;
+			}
+			
+			containsZero = true;
+			size++;
+			
+			return true;
+		}
+		
+		// Keep the table at most half full
+		if (2 * (size + 1) > keys.length) {
+			resize(keys.length * 2);
+		}
+		
+		int mask = keys.length - 1;
+		int slot = (int) key & mask;
+		
+		while (keys[slot] != 0) {
+			if (keys[slot] == key) {
+				return false;
+			}
+			
+			slot = (slot + 1) & mask;
+		}
+		
+		keys[slot] = key;
+		size++;
+		
+		return true;
+	}
+	
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		keys = new long[capacity];
+		
+		int mask = capacity - 1;
+		for (long key : oldKeys) {
+			if (key != 0) {
+				int slot = (int) key & mask;
+				
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				
+				keys[slot] = key;
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.github.juliomarcopineda;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedFragmentLibrary is a FragmentLibrary read from a file mapped into memory. Nothing of the file is parsed or copied to the heap when it is
+ * opened: the weights, offsets and tokens are read from the mapped file when they are accessed, and the mass index of the library searches the
+ * mapped weights directly. The file is mapped read-only, so the operating system shares its pages between every JVM of the host that opens it.
+ *
+ * A library file is identified by the key of the peptide it was built for, see FragmentLibraryCache.createKey: the version of the fragments, the
+ * sequence, type, connections and custom weight of the peptide and the weights of the residue registry. The key is written in the header and compared
+ * when the file is opened, so a library is never used for a peptide it was not built for, nor with fragments of another version. This is the format
+ * of the files of a FragmentLibraryCache.
+ *
+ * The file is written by write in a flat little-endian layout:
+ *
+ * A header of eight ints: the magic number, the version, the number of fragments, the number of tokens, the length of the key in bytes, and three
+ * unused ints.
+ * The key in UTF-8, padded with zeros to a multiple of 8 bytes.
+ * The weights of the fragments in increasing order, as doubles.
+ * The offsets of the tokens of the fragments, as ints. The tokens of the i-th lightest fragment go from the i-th offset (inclusive) to the next one
+ * (exclusive).
+ * The tokens of all the fragments, as ints. A token is a node of the graph of the peptide, where the nodes past the end of the sequence are
+ * linkers, or -1 where the String representation of the fragment has a "#".
+ *
+ * @author Julio Pineda
+ *
+ */
+public class MappedFragmentLibrary implements FragmentLibrary {
+	private static final int MAGIC = 0x4253534d;
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 32;
+	
+	private String key;
+	
+	private DoubleBuffer masses;
+	private IntBuffer offsets;
+	private IntBuffer tokens;
+	private int size;
+	
+	private MappedFragmentLibrary(String key, DoubleBuffer masses, IntBuffer offsets, IntBuffer tokens, int size) {
+		this.key = key;
+		this.masses = masses;
+		this.offsets = offsets;
+		this.tokens = tokens;
+		this.size = size;
+	}
+	
+	/**
+	 * Returns the key of the peptide the library was built for.
+	 * 
+	 * @return
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public double getMass(int i) {
+		return masses.get(i);
+	}
+	
+	@Override
+	public int[] getTokens(int i) {
+		int start = offsets.get(i);
+		int[] fragmentTokens = new int[offsets.get(i + 1) - start];
+		
+		for (int j = 0; j < fragmentTokens.length; j++) {
+			fragmentTokens[j] = tokens.get(start + j);
+		}
+		
+		return fragmentTokens;
+	}
+	
+	@Override
+	public FragmentMassIndex createMassIndex() {
+		return new FragmentMassIndex(masses);
+	}
+	
+	/**
+	 * Maps the library file read-only into memory. The file stays mapped until the library is garbage collected. Throws an IOException if the file
+	 * is not a valid library or was built for a peptide with another key. The sizes in the header are checked against the length of the file and
+	 * the offsets are checked to increase before anything is read, so a corrupt file is rejected here instead of failing later while matching.
+	 * 
+	 * @param file
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	public static MappedFragmentLibrary open(Path file, String key) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Fragment library is too large to be mapped: " + file);
+			}
+			
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		
+		if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a fragment library: " + file);
+		}
+		
+		int size = buffer.getInt(8);
+		int tokenCount = buffer.getInt(12);
+		int keyBytes = buffer.getInt(16);
+		
+		if (size < 0 || tokenCount < 0 || keyBytes < 0 || keyBytes > buffer.limit()
+				|| HEADER_BYTES + pad(keyBytes) + size * 8L + (size + 1) * 4L + tokenCount * 4L != buffer.limit()) {
+			throw new IOException("Invalid fragment library: " + file);
+		}
+		
+		int massesStart = HEADER_BYTES + pad(keyBytes);
+		int offsetsStart = massesStart + size * 8;
+		int tokensStart = offsetsStart + (size + 1) * 4;
+		
+		byte[] keyText = new byte[keyBytes];
+		buffer.position(HEADER_BYTES);
+		buffer.get(keyText);
+		
+		if (!new String(keyText, StandardCharsets.UTF_8).equals(key)) {
+			throw new IOException("Fragment library of another peptide: " + file);
+		}
+		
+		DoubleBuffer masses = slice(buffer, massesStart, offsetsStart).asDoubleBuffer();
+		IntBuffer offsets = slice(buffer, offsetsStart, tokensStart).asIntBuffer();
+		IntBuffer tokens = slice(buffer, tokensStart, buffer.limit()).asIntBuffer();
+		
+		// Every fragment has at least one token, so the offsets increase from 0 to the number of tokens
+		if (offsets.get(0) != 0 || offsets.get(size) != tokenCount) {
+			throw new IOException("Invalid fragment library offsets: " + file);
+		}
+		
+		for (int i = 0; i < size; i++) {
+			if (offsets.get(i + 1) <= offsets.get(i)) {
+				throw new IOException("Invalid fragment library offsets: " + file);
+			}
+		}
+		
+		return new MappedFragmentLibrary(key, masses, offsets, tokens, size);
+	}
+	
+	/**
+	 * Writes the library of the peptide with the given key to the file in the layout read by open.
+	 * 
+	 * @param library
+	 * @param key
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(FragmentLibrary library, String key, Path file) throws IOException {
+		int size = library.size();
+		
+		byte[] keyText = key.getBytes(StandardCharsets.UTF_8);
+		
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			
+			// The number of tokens is only known once all the fragments are written
+			buffer.putInt(MAGIC)
+				.putInt(VERSION)
+				.putInt(size)
+				.putInt(0)
+				.putInt(keyText.length)
+				.putInt(0)
+				.putInt(0)
+				.putInt(0);
+			
+			put(channel, buffer, keyText);
+			put(channel, buffer, new byte[pad(keyText.length) - keyText.length]);
+			
+			for (int i = 0; i < size; i++) {
+				flushIfFull(channel, buffer, 8);
+				buffer.putDouble(library.getMass(i));
+			}
+			
+			int tokenCount = 0;
+			for (int i = 0; i <= size; i++) {
+				flushIfFull(channel, buffer, 4);
+				buffer.putInt(tokenCount);
+				
+				if (i < size) {
+					tokenCount += library.getTokens(i).length;
+				}
+			}
+			
+			for (int i = 0; i < size; i++) {
+				for (int token : library.getTokens(i)) {
+					flushIfFull(channel, buffer, 4);
+					buffer.putInt(token);
+				}
+			}
+			
+			flush(channel, buffer);
+			
+			ByteBuffer tokenCountBytes = ByteBuffer.allocate(4)
+				.order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(0, tokenCount);
+			channel.write(tokenCountBytes, 12);
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes rounded up to a multiple of 8.
+	 * 
+	 * @param bytes
+	 * @return
+	 */
+	private static int pad(int bytes) {
+		return (bytes + 7) & ~7;
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(start);
+		duplicate.limit(end);
+		
+		return duplicate.slice()
+			.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	private static void put(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+		for (byte b : bytes) {
+			flushIfFull(channel, buffer, 1);
+			buffer.put(b);
+		}
+	}
+	
+	/**
+	 * Writes the buffer to the channel if it has less than the given number of bytes left.
+	 * 
+	 * @param channel
+	 * @param buffer
+	 * @param bytes
+	 * @throws IOException
+	 */
+	private static void flushIfFull(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush(channel, buffer);
+		}
+	}
+	
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		
+		buffer.clear();
+	}
+}
@@ -0,0 +1,72 @@
+package com.github.juliomarcopineda;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MgfReader reads the peaks of a Mascot Generic Format (MGF) file. Every spectrum is a block of lines from "BEGIN IONS" to "END IONS": the
+ * "KEY=value" lines of the block describe the spectrum and are skipped, and every other line is a peak made of its m/z value, its intensity and
+ * optionally its charge. Lines outside of the blocks, like the global parameters and comments, are skipped.
+ * 
+ * The scan number of a spectrum is the first number of its SCANS parameter, which comes before the peaks of the block. A spectrum without it is
+ * numbered by its position in the file.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public class MgfReader implements SpectrumReader {
+	@Override
+	public void read(InputStream input, PeakConsumer consumer) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII), 1 << 16);
+		
+		boolean inIons = false;
+		boolean started = false;
+		int position = 0;
+		int scan = 0;
+		
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			
+			if (line.equalsIgnoreCase("BEGIN IONS")) {
+				inIons = true;
+				started = false;
+				position++;
+				scan = position;
+			}
+			else if (line.equalsIgnoreCase("END IONS")) {
+				inIons = false;
+			}
+			else if (inIons && line.regionMatches(true, 0, "SCANS=", 0, 6)) {
+				scan = parseScan(line.substring(6), scan);
+			}
+			else if (inIons && line.indexOf('=') == -1 && !line.isEmpty()) {
+				if (!started) {
+					consumer.startSpectrum(scan);
+					started = true;
+				}
+				
+				PeakListReader.readPeak(line, consumer);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the first number of the value of a SCANS parameter, like "12" or "12-14", or the default scan number if it has none.
+	 * 
+	 * @param scans
+	 * @param defaultScan
+	 * @return
+	 */
+	private static int parseScan(String scans, int defaultScan) {
+		int end = 0;
+		while (end < scans.length() && Character.isDigit(scans.charAt(end))) {
+			end++;
+		}
+		
+		return end == 0 || end > 9 ? defaultScan : Integer.parseInt(scans.substring(0, end));
+	}
+}
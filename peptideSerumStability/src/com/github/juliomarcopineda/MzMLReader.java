@@ -0,0 +1,223 @@
+package com.github.juliomarcopineda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * MzMLReader reads the peaks of the spectra of an mzML file. The file is read with a streaming XML parser, so only the binary arrays of one
+ * spectrum are in memory at a time.
+ *
+ * Every spectrum has a binary array of m/z values and a binary array of intensities: base64 text of little-endian 32 or 64 bit floats, optionally
+ * compressed with zlib. The type, precision and compression of an array are given by the cvParams of its binaryDataArray element. The peaks of a
+ * spectrum are handed over once the whole spectrum is read; a spectrum without intensities has intensities of 0. Chromatograms are skipped.
+ * 
+ * The scan number of a spectrum is the "scan=" part of its id, for example "controllerType=0 controllerNumber=1 scan=12". A spectrum without it is
+ * numbered by its position in the file.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class MzMLReader implements SpectrumReader {
+	private static final String MZ_ARRAY = "MS:1000514";
+	private static final String INTENSITY_ARRAY = "MS:1000515";
+	private static final String FLOAT_32 = "MS:1000521";
+	private static final String FLOAT_64 = "MS:1000523";
+	private static final String ZLIB_COMPRESSION = "MS:1000574";
+	
+	@Override
+	public void read(InputStream input, PeakConsumer consumer) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		
+		try {
+			XMLStreamReader reader = factory.createXMLStreamReader(input);
+			
+			boolean inSpectrum = false;
+			boolean inArray = false;
+			int position = 0;
+			int scan = 0;
+			
+			double[] mzs = null;
+			double[] intensities = null;
+			
+			// The cvParams of the current binaryDataArray
+			String arrayType = null;
+			boolean is64Bit = true;
+			boolean isCompressed = false;
+			
+			while (reader.hasNext()) {
+				int event = reader.next();
+				
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					switch (reader.getLocalName()) {
+						case "spectrum":
+							inSpectrum = true;
+							mzs = null;
+							intensities = null;
+							position++;
+							scan = parseScan(reader.getAttributeValue(null, "id"), position);
+							break;
+						case "binaryDataArray":
+							inArray = inSpectrum;
+							arrayType = null;
+							is64Bit = true;
+							isCompressed = false;
+							break;
+						case "cvParam":
+							if (inArray) {
+								String accession = reader.getAttributeValue(null, "accession");
+								
+								if (MZ_ARRAY.equals(accession) || INTENSITY_ARRAY.equals(accession)) {
+									arrayType = accession;
+								}
+								else if (FLOAT_32.equals(accession)) {
+									is64Bit = false;
+								}
+								else if (FLOAT_64.equals(accession)) {
+									is64Bit = true;
+								}
+								else if (ZLIB_COMPRESSION.equals(accession)) {
+									isCompressed = true;
+								}
+							}
+							break;
+						case "binary":
+							if (inArray) {
+								// The cvParams of an array come before its binary element
+								double[] values = decode(reader.getElementText(), is64Bit, isCompressed);
+								
+								if (MZ_ARRAY.equals(arrayType)) {
+									mzs = values;
+								}
+								else if (INTENSITY_ARRAY.equals(arrayType)) {
+									intensities = values;
+								}
+							}
+							break;
+						default:
+							break;
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					switch (reader.getLocalName()) {
+						case "spectrum":
+							if (mzs != null) {
+								consumer.startSpectrum(scan);
+								
+								for (int i = 0; i < mzs.length; i++) {
+									consumer.accept(mzs[i], intensities != null && i < intensities.length ? intensities[i] : 0);
+								}
+							}
+							
+							inSpectrum = false;
+							break;
+						case "binaryDataArray":
+							inArray = false;
+							break;
+						default:
+							break;
+					}
+				}
+			}
+			
+			reader.close();
+		}
+		catch (XMLStreamException e) {
+			throw new IOException("Invalid mzML file", e);
+		}
+	}
+	
+	/**
+	 * Returns the number after "scan=" in the id of a spectrum, or the default scan number if there is none.
+	 * 
+	 * @param id
+	 * @param defaultScan
+	 * @return
+	 */
+	private static int parseScan(String id, int defaultScan) {
+		if (id == null) {
+			return defaultScan;
+		}
+		
+		for (String part : id.split("\\s+")) {
+			if (part.startsWith("scan=")) {
+				try {
+					return Integer.parseInt(part.substring(5));
+				}
+				catch (NumberFormatException e) {
+					return defaultScan;
+				}
+			}
+		}
+		
+		return defaultScan;
+	}
+	
+	/**
+	 * Decodes the base64 text of a binary array into its values.
+	 * 
+	 * @param text
+	 * @param is64Bit
+	 * @param isCompressed
+	 * @return
+	 * @throws IOException
+	 */
+	private static double[] decode(String text, boolean is64Bit, boolean isCompressed) throws IOException {
+		byte[] bytes = Base64.getMimeDecoder()
+			.decode(text.trim());
+		
+		if (isCompressed) {
+			bytes = inflate(bytes);
+		}
+		
+		ByteBuffer buffer = ByteBuffer.wrap(bytes)
+			.order(ByteOrder.LITTLE_ENDIAN);
+		
+		double[] values = new double[bytes.length / (is64Bit ? 8 : 4)];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = is64Bit ? buffer.getDouble() : buffer.getFloat();
+		}
+		
+		return values;
+	}
+	
+	private static byte[] inflate(byte[] bytes) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(bytes);
+		
+		ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 4);
+		byte[] chunk = new byte[1 << 16];
+		
+		try {
+			while (!inflater.finished()) {
+				int length = inflater.inflate(chunk);
+				
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated zlib data in mzML file");
+				}
+				
+				output.write(chunk, 0, length);
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Invalid zlib data in mzML file", e);
+		}
+		finally {
+			inflater.end();
+		}
+		
+		return output.toByteArray();
+	}
+}
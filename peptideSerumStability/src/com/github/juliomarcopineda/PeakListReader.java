@@ -0,0 +1,86 @@
+package com.github.juliomarcopineda;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PeakListReader reads a plain list of peaks: one peak per line, made of its m/z value, optionally followed by its intensity. The values can be
+ * separated with white space, commas or semicolons, so two-column text and CSV exports are both read. Blank lines and lines that do not start with
+ * a number, like headers and comments, are skipped. The whole list is one spectrum, with scan number 1.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public class PeakListReader implements SpectrumReader {
+	@Override
+	public void read(InputStream input, PeakConsumer consumer) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII), 1 << 16);
+		consumer.startSpectrum(1);
+		
+		String line;
+		while ((line = reader.readLine()) != null) {
+			readPeak(line, consumer);
+		}
+	}
+	
+	/**
+	 * Reads the peak of a line and hands it to the consumer. Returns false, without reading anything, if the line does not start with a number or its
+	 * second column is not a number, like a comment starting with "-" or a header of a numeric column. A peak without intensity has an intensity of 0.
+	 * 
+	 * @param line
+	 * @param consumer
+	 * @return
+	 */
+	static boolean readPeak(String line, PeakConsumer consumer) {
+		int start = skipSeparators(line, 0);
+		if (start == line.length() || !isNumberStart(line.charAt(start))) {
+			return false;
+		}
+		
+		double mz;
+		double intensity = 0;
+		
+		try {
+			int end = findSeparator(line, start);
+			mz = Double.parseDouble(line.substring(start, end));
+			
+			start = skipSeparators(line, end);
+			if (start < line.length()) {
+				intensity = Double.parseDouble(line.substring(start, findSeparator(line, start)));
+			}
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+		
+		consumer.accept(mz, intensity);
+		return true;
+	}
+	
+	private static boolean isNumberStart(char c) {
+		return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+';
+	}
+	
+	private static boolean isSeparator(char c) {
+		return Character.isWhitespace(c) || c == ',' || c == ';';
+	}
+	
+	private static int skipSeparators(String line, int start) {
+		while (start < line.length() && isSeparator(line.charAt(start))) {
+			start++;
+		}
+		
+		return start;
+	}
+	
+	private static int findSeparator(String line, int start) {
+		while (start < line.length() && !isSeparator(line.charAt(start))) {
+			start++;
+		}
+		
+		return start;
+	}
+}
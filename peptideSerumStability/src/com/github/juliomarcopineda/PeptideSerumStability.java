@@ -1,18 +1,25 @@
 package com.github.juliomarcopineda;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -21,40 +28,126 @@ import com.github.juliomarcopineda.peptide.PeptideType;
 
 /**
  * PeptideSerumStability analyzes linear and cyclic peptides and determines if any fragments occur in a peptide serum stability study.
- * This program has two modes: interactive and input.
+ * This program has three modes: interactive, input and daemon.
  * 
  * The input mode accepts a text file with a pre-defined format to build the following Peptide objects used for analysis. Then, this program will write
- * a CSV file of the suggested fragments. Here are the following arguments for the input mode: [input] [input file] [output file] [threshold]
+ * a CSV file of the suggested fragments (or a binary file if the name of the output file ends with ".bin", gzipped if it ends with ".gz"). Here are
+ * the following arguments for the input mode: [input] [input file] [output file] [threshold] [optional: number of workers] [optional: cache
+ * directory] [optional: --ions=ion forms] [optional: --isotopes] [optional: --alphabet=alphabet file] [optional: --metrics=metrics file] [optional:
+ * --verbose]. The threshold is in Da, or in ppm if it ends with "ppm", see Tolerance.parse. The ion forms are searched for every mass spec data, for
+ * example --ions=M,H3,Na,-H2O, see IonModel.parse; without them the mass spec data are neutral molecular weights. With --isotopes, every suggested
+ * fragment is scored by how much of its isotope envelope is in the mass spec data (and how well it agrees with the intensities of the spectrum file),
+ * see IsotopeScorer. With an alphabet file, the weights of its symbols are added to the weights of weights.csv, so peptides can use non-canonical
+ * residues, see ResidueMassRegistry.withAlphabet. With more than one worker, the peptides are analyzed in parallel and the output file is written in
+ * the same order as the input file. With a cache directory, the fragments of every peptide are kept in the directory and loaded again the next time
+ * the same peptide is analyzed, see FragmentLibraryCache. With a metrics file, the counters and timers of every phase of the run are written to the
+ * file as JSON once the run is done, see AnalysisMetrics; they can also be read over JMX while the run is in progress. The run is quiet unless
+ * --verbose is given, in which case the progress of every peptide and the metrics are printed.
  * 
  * The interactive mode lets the user input the peptide and mass spectrometry data manually. The user also has options to print out all the possible
  * fragments dependent on their size. The argument to start the interactive mode is: [interactive].
  * 
+ * The daemon mode keeps running and answers requests to match mass spec data sent over a local socket, keeping the fragments of the recently used
+ * peptides in memory, see AnalysisDaemon. Here are the arguments for the daemon mode: [daemon] [port] [optional: number of peptides kept in memory]
+ * [optional: cache directory] [optional: --alphabet=alphabet file]. The metrics of the daemon can be read over JMX while it runs.
+ * 
  * @author Julio Pineda
  *
  */
 public class PeptideSerumStability {
+	private static final int INPUT_QUEUE_CAPACITY = 64;
+	private static final int DEFAULT_DAEMON_ANALYZERS = 64;
+	
 	public static void main(String[] args) {
 		if (args[0].toLowerCase()
 			.equals("input")) {
 			
-			if (args.length != 4) {
+			// The named options can be anywhere, the remaining arguments are positional
+			IonModel ionModel = IonModel.neutral();
+			boolean isotopes = false;
+			String alphabetFile = null;
+			String metricsFile = null;
+			boolean verbose = false;
+			List<String> arguments = new ArrayList<>();
+			for (String arg : args) {
+				if (arg.startsWith("--ions=")) {
+					ionModel = IonModel.parse(arg.substring("--ions=".length()));
+				}
+				else if (arg.equals("--isotopes")) {
+					isotopes = true;
+				}
+				else if (arg.startsWith("--alphabet=")) {
+					alphabetFile = arg.substring("--alphabet=".length());
+				}
+				else if (arg.startsWith("--metrics=")) {
+					metricsFile = arg.substring("--metrics=".length());
+				}
+				else if (arg.equals("--verbose")) {
+					verbose = true;
+				}
+				else {
+					arguments.add(arg);
+				}
+			}
+			args = arguments.toArray(new String[0]);
+			
+			if (args.length < 4 || args.length > 6) {
 				System.out.println("Please add the right number of arguments for the choice \"input\"");
 				System.exit(1);
 			}
 			
 			String inputFile = args[1];
 			String outputFile = args[2];
-			double threshold = Double.parseDouble(args[3]);
+			Tolerance tolerance = Tolerance.parse(args[3]);
 			
-			List<Peptide> peptides = new InputParser(inputFile).parse()
-				.getPeptides();
+			int workers = 1;
+			if (args.length >= 5) {
+				workers = Integer.parseInt(args[4]);
+				
+				if (workers < 1) {
+					System.out.println("Please enter at least one worker for the choice \"input\"");
+					System.exit(1);
+				}
+			}
+			
+			ResidueMassRegistry residueMasses = readAlphabet(alphabetFile);
+			
+			FragmentLibraryCache cache = null;
+			if (args.length == 6) {
+				cache = new FragmentLibraryCache(Paths.get(args[5]), FragmentLibraryCache.DEFAULT_MAX_BYTES, residueMasses);
+			}
+			
+			FragmentAnalyzer.setVerbose(verbose);
+			AnalysisMetrics.registerMBean();
+			
+			// The peptides are analyzed while the rest of the input file is still being parsed
+			Iterator<Peptide> peptides = new InputParser(inputFile).stream(INPUT_QUEUE_CAPACITY);
 			
-			writeOutputFile(peptides, outputFile, threshold);
+			try {
+				writeOutputFile(peptides, outputFile, tolerance, ionModel, isotopes, workers, residueMasses, cache);
+			}
+			finally {
+				// The metrics of a run that failed are written as well
+				AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+				if (verbose) {
+					System.out.println(metrics.toJson());
+				}
+				
+				if (metricsFile != null) {
+					try {
+						metrics.writeJson(Paths.get(metricsFile));
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
 		}
 		else if (args[0].toLowerCase()
 			.equals("interactive")) {
 			
 			printIntro();
+			FragmentAnalyzer.setVerbose(true);
 			
 			Peptide peptide = new Peptide();
 			
@@ -93,13 +186,15 @@ public class PeptideSerumStability {
 					List<Integer> connections = new ArrayList<>();
 					if (!type.equals(PeptideType.LINEAR)) { // only prompt for connections for cyclic peptides
 						
-						while (connections.isEmpty() || hasDuplicates(connections)) {
+						while (connections.isEmpty() || hasDuplicates(connections) || !hasPairs(connections)) {
 							connections.clear();
 							promptForConnections(connections, br);
 						}
 						
-						// Ensure that the connections are in increasing order
-						Collections.sort(connections);
+						// Ensure that the connections of every pair are in increasing order
+						for (int i = 0; i + 1 < connections.size(); i += 2) {
+							Collections.sort(connections.subList(i, i + 2));
+						}
 					}
 					
 					peptide.setConnections(connections);
@@ -116,7 +211,7 @@ public class PeptideSerumStability {
 				
 				// Create FragmentAnalyzer and then start interactive session
 				FragmentAnalyzer analyzer = new FragmentAnalyzer(peptide);
-				analyzer.findAllFragments()
+				analyzer.findAllFragments(ForkJoinPool.commonPool())
 					.measureAllFragmentWeights();
 				interactiveSession(analyzer, br);
 				
@@ -126,6 +221,67 @@ public class PeptideSerumStability {
 				e.printStackTrace();
 			}
 		}
+		else if (args[0].toLowerCase()
+			.equals("daemon")) {
+			
+			String alphabetFile = null;
+			List<String> arguments = new ArrayList<>();
+			for (String arg : args) {
+				if (arg.startsWith("--alphabet=")) {
+					alphabetFile = arg.substring("--alphabet=".length());
+				}
+				else {
+					arguments.add(arg);
+				}
+			}
+			args = arguments.toArray(new String[0]);
+			
+			if (args.length < 2 || args.length > 4) {
+				System.out.println("Please add the right number of arguments for the choice \"daemon\"");
+				System.exit(1);
+			}
+			
+			int port = Integer.parseInt(args[1]);
+			int maxAnalyzers = args.length >= 3 ? Integer.parseInt(args[2]) : DEFAULT_DAEMON_ANALYZERS;
+			ResidueMassRegistry residueMasses = readAlphabet(alphabetFile);
+			FragmentLibraryCache cache = null;
+			if (args.length == 4) {
+				cache = new FragmentLibraryCache(Paths.get(args[3]), FragmentLibraryCache.DEFAULT_MAX_BYTES, residueMasses);
+			}
+			
+			AnalysisMetrics.registerMBean();
+			
+			try (AnalysisDaemon daemon = new AnalysisDaemon(port, new AnalyzerCache(maxAnalyzers, cache, residueMasses))) {
+				System.out.println("Listening on port " + daemon.getPort());
+				daemon.run();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the default residue registry with the weights of the alphabet file added, or the default registry if there is no alphabet file. Exits
+	 * if the alphabet file cannot be read.
+	 * 
+	 * @param alphabetFile
+	 * @return
+	 */
+	private static ResidueMassRegistry readAlphabet(String alphabetFile) {
+		if (alphabetFile == null) {
+			return ResidueMassRegistry.getDefault();
+		}
+		
+		try {
+			return ResidueMassRegistry.getDefault()
+				.withAlphabet(Paths.get(alphabetFile));
+		}
+		catch (IOException | IllegalArgumentException e) {
+			System.out.println("Please enter a readable alphabet file: " + e.getMessage());
+			System.exit(1);
+			return null;
+		}
 	}
 	
 	private static boolean hasDuplicates(List<Integer> connections) {
@@ -141,6 +297,17 @@ public class PeptideSerumStability {
 		}
 	}
 	
+	private static boolean hasPairs(List<Integer> connections) {
+		if (connections.size() > 2 && connections.size() % 2 != 0) {
+			System.out.println("Please enter the connections of a peptide with more than one cycle as pairs. Please try again.");
+			
+			return false;
+		}
+		else {
+			return true;
+		}
+	}
+	
 	private static void promptForConnections(List<Integer> connections, BufferedReader br) {
 		System.out.println("Please enter the indices where the cyclic connections are. Separate the indices with commas.");
 		System.out.print("Connections: ");
@@ -162,36 +329,92 @@ public class PeptideSerumStability {
 	}
 	
 	/**
-	 * Given a list of peptides, an output file and a user-definied threshold, writes to a CSV file the suggested fragments with the following format:
+	 * Given the peptides, an output file, a user-definied tolerance, the ion model, whether to score the isotopes, the number of workers, the residue
+	 * registry and an optional cache of fragment libraries (or null) with the same registry, writes to the output file the suggested fragments with
+	 * the following format:
 	 * | Peptide | Mass Spec | Suggested Fragment | Calculated Weight |
 	 * 
+	 * If the ion model is not neutral, every row also has the ion form that explains its mass spec data, and if the isotopes are scored, every row
+	 * also has its isotope score.
+	 * 
+	 * The output file is written as CSV, or in a binary columnar format if its name ends with ".bin", and compressed with gzip if its name ends with
+	 * ".gz", see ResultSink.open.
+	 * 
+	 * The peptides are taken from the iterator one at a time, so they can still be parsed while the first peptides are analyzed.
+	 * 
+	 * With more than one worker, the peptides are analyzed in parallel. The rows of each peptide are still written in the order of the
+	 * peptides, so the output file is identical to the one written by a single worker. At most two peptides per worker are in flight at a time, which
+	 * bounds the number of finished results waiting to be written. If the input file cannot be parsed, the results of the peptides before the error
+	 * are written before the error is thrown, as with a single worker.
+	 * 
 	 * @param peptides
 	 * @param outputFile
-	 * @param threshold
+	 * @param tolerance
+	 * @param ionModel
+	 * @param isotopes
+	 * @param workers
+	 * @param residueMasses
+	 * @param cache
 	 */
-	private static void writeOutputFile(List<Peptide> peptides, String outputFile, double threshold) {
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
-			// Write header
-			writer.write("Peptide,Mass Spec,Suggested Fragment,Calculated Weight\n");
-			
-			for (Peptide peptide : peptides) {
-				String peptideSequence = peptide.getSequence();
-				
-				FragmentAnalyzer analyzer = new FragmentAnalyzer(peptide).findAllFragments()
-					.measureAllFragmentWeights();
+	private static void writeOutputFile(Iterator<Peptide> peptides, String outputFile, Tolerance tolerance, IonModel ionModel, boolean isotopes,
+			int workers, ResidueMassRegistry residueMasses, FragmentLibraryCache cache) {
+		try (ResultSink sink = ResultSink.open(outputFile, ionModel, isotopes)) {
+			if (workers == 1) {
+				while (peptides.hasNext()) {
+					Peptide peptide = peptides.next();
+					
+					write(sink, peptide.getSequence(), analyzePeptide(peptide, tolerance, ionModel, isotopes, residueMasses, cache));
+				}
+			}
+			else {
+				ExecutorService executor = Executors.newFixedThreadPool(workers);
 				
-				List<Double> massSpecData = peptide.getMassSpecData();
-				for (double data : massSpecData) {
-					Map<String, Double> suggestedFragments = analyzer.suggestFragments(data, threshold);
+				try {
+					Deque<Map.Entry<String, Future<List<FragmentMatch>>>> inFlight = new ArrayDeque<>();
+					RuntimeException parseError = null;
 					
-					if (suggestedFragments != null && !suggestedFragments.isEmpty()) {
-						for (Map.Entry<String, Double> entry : suggestedFragments.entrySet()) {
-							String suggestedFragment = entry.getKey();
-							double calculatedWeight = entry.getValue();
+					while (true) {
+						Peptide peptide;
+						try {
+							if (!peptides.hasNext()) {
+								break;
+							}
 							
-							writer.write(peptideSequence + "," + data + "," + suggestedFragment + "," + calculatedWeight + "\n");
+							peptide = peptides.next();
+						}
+						catch (RuntimeException e) {
+							// The peptides parsed before the error are still written
+							parseError = e;
+							break;
 						}
+						
+						// Write the oldest result first to keep the output in input order
+						if (inFlight.size() == workers * 2) {
+							writeOldest(inFlight, sink);
+						}
+						
+						Future<List<FragmentMatch>> matches = executor.submit(() -> analyzePeptide(peptide, tolerance, ionModel, isotopes, residueMasses, cache));
+						inFlight.add(new AbstractMap.SimpleEntry<>(peptide.getSequence(), matches));
 					}
+					
+					while (!inFlight.isEmpty()) {
+						writeOldest(inFlight, sink);
+					}
+					
+					if (parseError != null) {
+						throw parseError;
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread()
+						.interrupt();
+					throw new IllegalStateException("Interrupted while waiting for the peptides to be analyzed", e);
+				}
+				catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				finally {
+					executor.shutdownNow();
 				}
 			}
 		}
@@ -200,6 +423,102 @@ public class PeptideSerumStability {
 		}
 	}
 	
+	/**
+	 * Waits for the matches of the oldest peptide in flight and writes them to the sink.
+	 * 
+	 * @param inFlight
+	 * @param sink
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private static void writeOldest(Deque<Map.Entry<String, Future<List<FragmentMatch>>>> inFlight, ResultSink sink)
+			throws IOException, InterruptedException, ExecutionException {
+		Map.Entry<String, Future<List<FragmentMatch>>> oldest = inFlight.poll();
+		
+		write(sink, oldest.getKey(), oldest.getValue()
+			.get());
+	}
+	
+	/**
+	 * Writes the matches of a peptide to the sink, recording the time it takes in the metrics.
+	 * 
+	 * @param sink
+	 * @param peptideSequence
+	 * @param matches
+	 * @throws IOException
+	 */
+	private static void write(ResultSink sink, String peptideSequence, List<FragmentMatch> matches) throws IOException {
+		AnalysisMetrics metrics = AnalysisMetrics.getDefault();
+		long startNanos = metrics.start();
+		
+		sink.write(peptideSequence, matches);
+		
+		metrics.stop(AnalysisMetrics.Phase.WRITE, startNanos);
+	}
+	
+	/**
+	 * Finds the fragments of a peptide, matches them against the mass spec data of the peptide and returns the matches, which are the rows of the
+	 * output file for this peptide. All the mass spec data of a peptide are matched against its fragments in one pass. The rows follow the order of
+	 * the mass spec data, and the suggested fragments of each mass spec data are written in increasing order of their calculated weight.
+	 * 
+	 * With a cache, all the fragments of the peptide are loaded from the cache (or found and saved the first time), so the same library can be
+	 * matched against any mass spec data.
+	 * 
+	 * With an ion model other than the neutral model or a tolerance in ppm, every mass spec data is matched in each ion form of the model, see
+	 * FragmentAnalyzer.matchFragments(double[], Tolerance, IonModel). With isotopes, the matches are then scored against the rest of the mass spec
+	 * data of the peptide and its intensities, if it has any, see IsotopeScorer.
+	 * 
+	 * @param peptide
+	 * @param tolerance
+	 * @param ionModel
+	 * @param isotopes
+	 * @param residueMasses
+	 * @param cache
+	 * @return
+	 */
+	private static List<FragmentMatch> analyzePeptide(Peptide peptide, Tolerance tolerance, IonModel ionModel, boolean isotopes,
+			ResidueMassRegistry residueMasses, FragmentLibraryCache cache) {
+		boolean neutral = ionModel.isNeutral() && !tolerance.isPpm();
+		
+		double[] massSpecData = DoubleArrayList.toDoubleArray(peptide.getMassSpecData());
+		
+		FragmentAnalyzer analyzer;
+		if (cache != null) {
+			analyzer = cache.analyze(peptide);
+		}
+		else {
+			// Only search the fragments that are light enough to match the mass spec data
+			analyzer = new FragmentAnalyzer(peptide, residueMasses);
+			
+			if (neutral) {
+				analyzer.limitToMassSpecData(massSpecData, tolerance.getValue());
+			}
+			else {
+				analyzer.limitToMassSpecData(massSpecData, tolerance, ionModel);
+			}
+			
+			analyzer.findAllFragments()
+				.measureAllFragmentWeights();
+		}
+		
+		List<FragmentMatch> matches;
+		if (neutral) {
+			matches = analyzer.matchFragments(massSpecData, tolerance.getValue());
+		}
+		else {
+			matches = analyzer.matchFragments(massSpecData, tolerance, ionModel);
+		}
+		
+		if (isotopes) {
+			double[] intensities = peptide.getIntensities() == null ? null : DoubleArrayList.toDoubleArray(peptide.getIntensities());
+			
+			matches = new IsotopeScorer(analyzer).score(matches, massSpecData, intensities, tolerance);
+		}
+		
+		return matches;
+	}
+	
 	/**
 	 * Given a fragment analyzer, runs the interactive session for the user in the command line.
 	 * 
@@ -260,34 +579,13 @@ public class PeptideSerumStability {
 						.toUpperCase()
 						.equals("Y")) {
 						
-						Map<String, Double> fragments = analyzer.getFragmentWeights();
-						
 						System.out.print("What fragment size to print? ");
 						int size = Integer.parseInt(br.readLine());
 						
-						for (Map.Entry<String, Double> entry : fragments.entrySet()) {
-							String fragment = entry.getKey();
-							double weight = entry.getValue();
-							
-							if (!fragment.contains("#")) {
-								int length = fragment.length();
-								
-								if (length == size) {
-									System.out.println(fragment + "\t" + weight);
-								}
-							}
-							else {
-								int length = 0;
-								String[] split = fragment.split("#");
-								
-								for (String fragmentPiece : split) {
-									length += fragmentPiece.length();
-								}
-								
-								if (length == size) {
-									System.out.println(fragment + "\t" + weight);
-								}
-							}
+						// Only the fragments of the requested size are visited, in increasing order of weight
+						for (Map.Entry<String, Double> entry : analyzer.getFragmentsOfSize(size)
+							.entrySet()) {
+							System.out.println(entry.getKey() + "\t" + entry.getValue());
 						}
 						System.out.println();
 						System.out.print("Print more? (Y/N) ");
@@ -305,6 +603,9 @@ public class PeptideSerumStability {
 	/**
 	 * Creates the graph structure reperesntation of a peptide. This graph is represented as a map from the index and then its connections.
 	 * 
+	 * A peptide with more than two connections has more than one cycle. Its connections are read as pairs (first and second, third and fourth, and
+	 * so on) and every pair gets its own linker, see addConnectionPairs.
+	 * 
 	 * @param peptideSequence
 	 * @param connections
 	 * @param type
@@ -325,7 +626,10 @@ public class PeptideSerumStability {
 			.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (collision1, collision2) -> collision1, LinkedHashMap::new));
 		
 		// Add any cyclic connections if connections is not empty
-		if (!connections.isEmpty()) {
+		if (connections.size() > 2) {
+			addConnectionPairs(graph, peptideSequence, connections, type);
+		}
+		else if (!connections.isEmpty()) {
 			switch (type) {
 				case CUSTOM:
 					// Set index of CUSTOM to the length of the peptide sequence
@@ -456,6 +760,69 @@ public class PeptideSerumStability {
 		return graph;
 	}
 	
+	/**
+	 * Adds the linkers of a peptide with more than one cycle to its graph. The connections are read as pairs, and each pair is closed by its own
+	 * linker, both ways:
+	 * 
+	 * An AMIDE pair is linked directly.
+	 * A DFBP or CUSTOM pair is linked through its own linker node. The linker of pair k is the node at the length of the sequence plus k.
+	 * A DISULFIDE pair is linked through its own two S nodes. The S nodes of pair k are the nodes at the length of the sequence plus 2k and 2k + 1.
+	 * 
+	 * Throws an IllegalArgumentException if the number of connections is odd.
+	 * 
+	 * @param graph
+	 * @param peptideSequence
+	 * @param connections
+	 * @param type
+	 */
+	private static void addConnectionPairs(Map<Integer, List<Integer>> graph, String peptideSequence, List<Integer> connections, PeptideType type) {
+		if (connections.size() % 2 != 0) {
+			throw new IllegalArgumentException("The connections of a peptide with more than one cycle must be pairs: " + connections);
+		}
+		
+		int linkerIndex = peptideSequence.length();
+		
+		for (int pair = 0; pair < connections.size() / 2; pair++) {
+			int connection1 = connections.get(2 * pair);
+			int connection2 = connections.get(2 * pair + 1);
+			
+			switch (type) {
+				case AMIDE:
+					addBond(graph, connection1, connection2);
+					break;
+				case CUSTOM:
+				case DFBP:
+					addBond(graph, connection1, linkerIndex + pair);
+					addBond(graph, linkerIndex + pair, connection2);
+					break;
+				case DISULFIDE:
+					int s1Index = linkerIndex + 2 * pair;
+					int s2Index = s1Index + 1;
+					
+					addBond(graph, connection1, s1Index);
+					addBond(graph, s1Index, s2Index);
+					addBond(graph, s2Index, connection2);
+					break;
+				case LINEAR:
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Adds the edges between the source and the target to the graph, in both directions.
+	 * 
+	 * @param graph
+	 * @param source
+	 * @param target
+	 */
+	private static void addBond(Map<Integer, List<Integer>> graph, int source, int target) {
+		graph.computeIfAbsent(source, key -> new ArrayList<>())
+			.add(target);
+		graph.computeIfAbsent(target, key -> new ArrayList<>())
+			.add(source);
+	}
+	
 	/**
 	 * Menu prompt for interactive mode of the program.
 	 */
@@ -0,0 +1,158 @@
+package com.github.juliomarcopineda;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ResidueMassRegistry is an immutable table of the molecular weights of the symbols that can appear in a peptide: amino acids and linkers. The
+ * weights are kept in a primitive array indexed by the symbol, so looking up a weight is a single array access.
+ *
+ * The default registry is read from weights.csv once per process and shared by every FragmentAnalyzer. Other alphabets, for example with
+ * non-canonical residues, are read from files in the same format (a header line, then one "symbol,weight" line per symbol) and added on top of a
+ * registry with withAlphabet. Weights that depend on a single peptide, like the weight of a CUSTOM linker, are not kept in the registry.
+ *
+ * @author Julio Pineda
+ *
+ */
+public final class ResidueMassRegistry {
+	private static final int SYMBOLS = 128;
+	
+	private final double[] masses; // NaN for the symbols without a weight
+	
+	private ResidueMassRegistry(double[] masses) {
+		this.masses = masses;
+	}
+	
+	/**
+	 * Returns the registry read from weights.csv, which is read the first time the registry is requested.
+	 * 
+	 * @return
+	 */
+	public static ResidueMassRegistry getDefault() {
+		return DefaultRegistry.INSTANCE;
+	}
+	
+	/**
+	 * Returns true if the registry has a weight for the symbol.
+	 * 
+	 * @param symbol
+	 * @return
+	 */
+	public boolean contains(char symbol) {
+		return symbol < SYMBOLS && !Double.isNaN(masses[symbol]);
+	}
+	
+	/**
+	 * Returns the weight of the symbol. Throws an IllegalArgumentException if the symbol has no weight.
+	 * 
+	 * @param symbol
+	 * @return
+	 */
+	public double getMass(char symbol) {
+		if (!contains(symbol)) {
+			throw new IllegalArgumentException("No molecular weight for symbol " + symbol);
+		}
+		
+		return masses[symbol];
+	}
+	
+	/**
+	 * Returns a read-only map of <symbol, weight> of every symbol of the registry, sorted by symbol.
+	 * 
+	 * @return
+	 */
+	public Map<Character, Double> asMap() {
+		Map<Character, Double> map = new TreeMap<>();
+		
+		for (char symbol = 0; symbol < SYMBOLS; symbol++) {
+			if (contains(symbol)) {
+				map.put(symbol, masses[symbol]);
+			}
+		}
+		
+		return Collections.unmodifiableMap(map);
+	}
+	
+	/**
+	 * Returns a new registry with the weights of this registry and the weights of the alphabet file. The weights of the file replace the weights of
+	 * the same symbols in this registry.
+	 * 
+	 * @param alphabetFile
+	 * @return
+	 * @throws IOException
+	 */
+	public ResidueMassRegistry withAlphabet(Path alphabetFile) throws IOException {
+		double[] masses = Arrays.copyOf(this.masses, SYMBOLS);
+		
+		try (Reader reader = Files.newBufferedReader(alphabetFile, StandardCharsets.UTF_8)) {
+			read(reader, masses);
+		}
+		
+		return new ResidueMassRegistry(masses);
+	}
+	
+	/**
+	 * Reads the lines of an alphabet into the weights, skipping the header and blank lines.
+	 * 
+	 * @param reader
+	 * @param masses
+	 * @throws IOException
+	 */
+	private static void read(Reader reader, double[] masses) throws IOException {
+		BufferedReader bufferedReader = new BufferedReader(reader);
+		
+		String line = bufferedReader.readLine(); // ignore header
+		while ((line = bufferedReader.readLine()) != null) {
+			line = line.trim();
+			
+			if (line.isEmpty()) {
+				continue;
+			}
+			
+			int comma = line.indexOf(',');
+			if (comma != 1 || line.charAt(0) >= SYMBOLS) {
+				throw new IllegalArgumentException("Invalid line of alphabet, expected an ASCII symbol and its weight: " + line);
+			}
+			
+			masses[line.charAt(0)] = Double.parseDouble(line.substring(comma + 1)
+				.trim());
+		}
+	}
+	
+	/**
+	 * Holder of the default registry, so that weights.csv is read once, the first time the default registry is requested.
+	 */
+	private static class DefaultRegistry {
+		private static final ResidueMassRegistry INSTANCE = readDefault();
+		
+		private static ResidueMassRegistry readDefault() {
+			double[] masses = new double[SYMBOLS];
+			Arrays.fill(masses, Double.NaN);
+			
+			InputStream weightsStream = ResidueMassRegistry.class.getResourceAsStream("/weights.csv");
+			if (weightsStream == null) {
+				throw new IllegalStateException("weights.csv is missing from the classpath");
+			}
+			
+			try (Reader reader = new InputStreamReader(weightsStream, StandardCharsets.UTF_8)) {
+				read(reader, masses);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			
+			return new ResidueMassRegistry(masses);
+		}
+	}
+}
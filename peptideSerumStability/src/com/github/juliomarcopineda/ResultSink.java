@@ -0,0 +1,70 @@
+package com.github.juliomarcopineda;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ResultSink writes the suggested fragments of the analyzed peptides to an output file, one peptide at a time and in the order the peptides are
+ * written. A sink is only used by one thread.
+ * 
+ * The format of the output file is chosen by its name, see open: CSV (CsvResultSink) or a binary columnar format (BinaryResultSink), either one
+ * optionally compressed with gzip. When the fragments are matched with an ion model other than the neutral model, every row also has the ion form
+ * of its match, and when the matches are scored by an IsotopeScorer, every row also has its isotope score.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public interface ResultSink extends Closeable {
+	/**
+	 * Writes the matches of a peptide.
+	 * 
+	 * @param peptideSequence
+	 * @param matches
+	 * @throws IOException
+	 */
+	void write(String peptideSequence, List<FragmentMatch> matches) throws IOException;
+	
+	/**
+	 * Opens a sink for the output file of matches in the neutral ion model without isotope scores, see open(String, IonModel, boolean).
+	 * 
+	 * @param outputFile
+	 * @return
+	 * @throws IOException
+	 */
+	static ResultSink open(String outputFile) throws IOException {
+		return open(outputFile, IonModel.neutral(), false);
+	}
+	
+	/**
+	 * Opens a sink for the output file. A name ending with ".gz" is compressed with gzip. Without that suffix, a name ending with ".bin" is written
+	 * in the binary columnar format, and any other name as CSV. The ion forms of the matches are only written if the ion model is not neutral, and
+	 * the isotope scores only if isotopeScores is true.
+	 * 
+	 * @param outputFile
+	 * @param ionModel
+	 * @param isotopeScores
+	 * @return
+	 * @throws IOException
+	 */
+	static ResultSink open(String outputFile, IonModel ionModel, boolean isotopeScores) throws IOException {
+		String name = outputFile.toLowerCase();
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16);
+		
+		if (name.endsWith(".gz")) {
+			output = new GZIPOutputStream(output, 1 << 16);
+			name = name.substring(0, name.length() - 3);
+		}
+		
+		if (name.endsWith(".bin")) {
+			return new BinaryResultSink(output, ionModel.isNeutral() ? null : ionModel, isotopeScores);
+		}
+		else {
+			return new CsvResultSink(output, !ionModel.isNeutral(), isotopeScores);
+		}
+	}
+}
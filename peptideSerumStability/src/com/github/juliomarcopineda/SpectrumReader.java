@@ -0,0 +1,171 @@
+package com.github.juliomarcopineda;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * SpectrumReader reads the peaks of the spectra exported by a mass spectrometer. The file is read as a stream and every peak is handed to a
+ * PeakConsumer as soon as its spectrum is read, so a reader never holds more than the peaks of one spectrum. What the consumer keeps is up to the
+ * consumer: readMassSpecData keeps the peaks of a single spectrum, which stay in memory with their peptide until the peptide is analyzed.
+ * 
+ * Every spectrum is identified by its scan number: the "scan=" part of the id of an mzML spectrum or the SCANS parameter of an MGF spectrum. A
+ * spectrum without a scan number is numbered by its position in the file, starting at 1, and a plain peak list is a single spectrum with scan
+ * number 1.
+ * 
+ * Three formats are supported, chosen by the name of the file (see forFile): mzML (MzMLReader), MGF (MgfReader) and plain peak lists of one m/z
+ * value per line, optionally followed by its intensity (PeakListReader). Any of them can be compressed with gzip.
+ * 
+ * @author Julio Pineda
+ *
+ */
+public interface SpectrumReader {
+	/**
+	 * The scan number given to readMassSpecData to read the only spectrum of a file.
+	 */
+	int ONLY_SPECTRUM = -1;
+	
+	/**
+	 * Receives the peaks of the spectra, one at a time.
+	 */
+	interface PeakConsumer {
+		/**
+		 * Called before the peaks of every spectrum, with the scan number of the spectrum.
+		 * 
+		 * @param scan
+		 */
+		default void startSpectrum(int scan) {
+		}
+		
+		void accept(double mz, double intensity);
+	}
+	
+	/**
+	 * Reads all the peaks of the input and hands them to the consumer in the order of the input.
+	 * 
+	 * @param input
+	 * @param consumer
+	 * @throws IOException
+	 */
+	void read(InputStream input, PeakConsumer consumer) throws IOException;
+	
+	/**
+	 * Returns the reader for the file: MzMLReader for names ending with ".mzML", MgfReader for names ending with ".mgf" and PeakListReader for any
+	 * other name. A ".gz" suffix is ignored.
+	 * 
+	 * @param fileName
+	 * @return
+	 */
+	static SpectrumReader forFile(String fileName) {
+		String name = fileName.toLowerCase();
+		if (name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		
+		if (name.endsWith(".mzml")) {
+			return new MzMLReader();
+		}
+		else if (name.endsWith(".mgf")) {
+			return new MgfReader();
+		}
+		else {
+			return new PeakListReader();
+		}
+	}
+	
+	/**
+	 * Reads the m/z values of the peaks of one spectrum of the file, in the order of the file, to be used as the mass spec data of a peptide. The
+	 * spectrum is the one with the given scan number, or with ONLY_SPECTRUM the only spectrum of the file. Peaks of different spectra are never
+	 * mixed: throws an IOException if there is no spectrum with the scan number, or if the file has more than one spectrum and no scan number is
+	 * given. The values are kept in a primitive array, see DoubleArrayList.
+	 * 
+	 * @param file
+	 * @param scan
+	 * @return
+	 * @throws IOException
+	 */
+	static DoubleArrayList readMassSpecData(Path file, int scan) throws IOException {
+		return readMassSpecData(file, scan, null);
+	}
+	
+	/**
+	 * Reads the m/z values of the peaks of one spectrum of the file like readMassSpecData(Path, int), and adds the intensities of the same peaks to
+	 * the given list, unless it is null.
+	 * 
+	 * @param file
+	 * @param scan
+	 * @param intensities
+	 * @return
+	 * @throws IOException
+	 */
+	static DoubleArrayList readMassSpecData(Path file, int scan, DoubleArrayList intensities) throws IOException {
+		DoubleArrayList massSpecData = new DoubleArrayList();
+		
+		// Keeps the peaks of the selected spectrum and counts the spectra of the file
+		class SpectrumSelector implements PeakConsumer {
+			private int spectra;
+			private boolean found;
+			private boolean selected;
+			
+			@Override
+			public void startSpectrum(int spectrumScan) {
+				this.spectra++;
+				this.selected = scan == ONLY_SPECTRUM || (spectrumScan == scan && !this.found);
+				this.found |= this.selected;
+			}
+			
+			@Override
+			public void accept(double mz, double intensity) {
+				if (this.selected) {
+					massSpecData.addDouble(mz);
+					
+					if (intensities != null) {
+						intensities.addDouble(intensity);
+					}
+				}
+			}
+		}
+		
+		SpectrumSelector selector = new SpectrumSelector();
+		
+		try (InputStream input = open(file)) {
+			forFile(file.getFileName()
+				.toString()).read(input, selector);
+		}
+		
+		if (scan == ONLY_SPECTRUM && selector.spectra > 1) {
+			throw new IOException(file + " has " + selector.spectra + " spectra, select one with @file#scan");
+		}
+		else if (scan != ONLY_SPECTRUM && !selector.found) {
+			throw new IOException("No spectrum with scan number " + scan + " in " + file);
+		}
+		
+		return massSpecData;
+	}
+	
+	/**
+	 * Opens the file for reading. A file compressed with gzip is recognized by its first two bytes and decompressed while it is read, whatever its
+	 * name.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static InputStream open(Path file) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(file.toFile()), 1 << 16);
+		
+		input.mark(2);
+		int first = input.read();
+		int second = input.read();
+		input.reset();
+		
+		if (first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >>> 8)) {
+			input = new GZIPInputStream(input, 1 << 16);
+		}
+		
+		return input;
+	}
+}
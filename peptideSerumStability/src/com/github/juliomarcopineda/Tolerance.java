@@ -0,0 +1,76 @@
+package com.github.juliomarcopineda;
+
+/**
+ * Tolerance is the largest difference between a mass spec measurement and a theoretical m/z for them to match, either an absolute difference in
+ * Da or a relative difference in parts per million (ppm) of the measurement.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class Tolerance {
+	private double value;
+	private boolean ppm;
+	
+	private Tolerance(double value, boolean ppm) {
+		if (value < 0) {
+			throw new IllegalArgumentException("A tolerance cannot be negative: " + value);
+		}
+		
+		this.value = value;
+		this.ppm = ppm;
+	}
+	
+	public static Tolerance da(double value) {
+		return new Tolerance(value, false);
+	}
+	
+	public static Tolerance ppm(double value) {
+		return new Tolerance(value, true);
+	}
+	
+	/**
+	 * Parses a tolerance such as "0.5", "0.5Da" or "10ppm". A number without a unit is in Da.
+	 * 
+	 * @param tolerance
+	 * @return
+	 */
+	public static Tolerance parse(String tolerance) {
+		String lowerCase = tolerance.trim()
+			.toLowerCase();
+		
+		if (lowerCase.endsWith("ppm")) {
+			return ppm(Double.parseDouble(lowerCase.substring(0, lowerCase.length() - 3)
+				.trim()));
+		}
+		else if (lowerCase.endsWith("da")) {
+			return da(Double.parseDouble(lowerCase.substring(0, lowerCase.length() - 2)
+				.trim()));
+		}
+		else {
+			return da(Double.parseDouble(lowerCase));
+		}
+	}
+	
+	public boolean isPpm() {
+		return ppm;
+	}
+	
+	public double getValue() {
+		return value;
+	}
+	
+	/**
+	 * Returns the largest difference in Da to a measurement of the given m/z.
+	 * 
+	 * @param mz
+	 * @return
+	 */
+	public double getWidth(double mz) {
+		return ppm ? Math.abs(mz) * value * 1e-6 : value;
+	}
+	
+	@Override
+	public String toString() {
+		return ppm ? value + "ppm" : value + "Da";
+	}
+}
@@ -16,6 +16,7 @@ public class Peptide {
 	private List<Integer> connections;
 	private Map<Integer, List<Integer>> graph;
 	private List<Double> massSpecData;
+	private List<Double> intensities;
 	private double customWeight;
 	
 	public double getCustomWeight() {
@@ -42,6 +43,14 @@ public class Peptide {
 		this.massSpecData = massSpecData;
 	}
 	
+	public List<Double> getIntensities() {
+		return intensities;
+	}
+	
+	public void setIntensities(List<Double> intensities) {
+		this.intensities = intensities;
+	}
+	
 	public String getSequence() {
 		return sequence;
 	}
@@ -1,92 +1,289 @@
 package com.github.juliomarcopineda.tests;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadLocalRandom;
 
 import com.github.juliomarcopineda.FragmentAnalyzer;
+import com.github.juliomarcopineda.FragmentTable;
 import com.github.juliomarcopineda.PeptideSerumStability;
 import com.github.juliomarcopineda.peptide.Peptide;
 import com.github.juliomarcopineda.peptide.PeptideType;
 
 /**
- * This class iterates over all the possible connections and stapling peptide types of a test peptide. Outputs the
- * log into a text file.
- * 
+ * This class iterates over all the possible connections and stapling peptide types of test peptides of increasing length, and records how the
+ * analysis of every case scales into a report. The test peptides are prefixes of a fixed sequence, repeated as needed.
+ *
+ * For every length, pair of connections and peptide type, the report has the number of fragments (and how many are linear, branched, cyclic and
+ * connected), the wall time of findAllFragments and measureAllFragmentWeights, the peak heap usage and the bytes allocated by the analysis. The
+ * report is written as JSON if its name ends with ".json", and as CSV otherwise.
+ *
+ * The arguments are: [optional: report file] [optional: shortest length] [optional: longest length] [optional: length step]. The longest length
+ * is always measured, even if the step does not land on it. The analysis runs on a single thread, so the allocated bytes of the thread are the
+ * allocated bytes of the analysis.
+ *
  * @author Julio Pineda
  *
  */
 public class ConnectionsTest {
-	public static void main(String[] args) {
-		// Prevent equal connections
-		// Prevent connections in decreasing order
+	private static final String BASE_SEQUENCE = "CGYEQDPWGVRYWYGCKKKKB";
+	private static final double CUSTOM_WEIGHT = 383.32;
+	
+	private static final String[] COLUMNS = { "length", "connection1", "connection2", "distance", "type", "fragments", "linear", "branched",
+			"cyclic", "connected", "wallNanos", "peakHeapBytes", "allocatedBytes" };
+	
+	/**
+	 * The measurements of one case, by the name of their column.
+	 */
+	private static class Case {
+		private Map<String, Object> values = new HashMap<>();
 		
-		PrintStream out = null;
-		try {
-			out = new PrintStream(new FileOutputStream("../log.txt"));
+		private Case put(String column, Object value) {
+			this.values.put(column, value);
+			return this;
 		}
-		catch (FileNotFoundException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
+		
+		/**
+		 * Returns the value of the column as text, in quotes if it is not a number and quoted is true.
+		 * 
+		 * @param column
+		 * @param quoted
+		 * @return
+		 */
+		private String getValue(String column, boolean quoted) {
+			Object value = this.values.get(column);
+			if (value == null) {
+				throw new IllegalStateException("No value for column " + column);
+			}
+			
+			return quoted && !(value instanceof Number) ? "\"" + value + "\"" : value.toString();
 		}
-		System.setOut(out);
+	}
+	
+	public static void main(String[] args) throws IOException {
+		String reportFile = args.length >= 1 ? args[0] : "../connections-report.csv";
+		int minLength = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+		int maxLength = args.length >= 3 ? Integer.parseInt(args[2]) : BASE_SEQUENCE.length();
+		int lengthStep = args.length >= 4 ? Integer.parseInt(args[3]) : 5;
 		
-		String peptideSequence = "CGYEQDPWGVRYWYGCKKKKB";
-		System.out.println("TEST PEPTIDE: " + peptideSequence);
-		System.out.println();
+		PrintStream progress = System.out;
 		
-		for (int conn1 = 0; conn1 < peptideSequence.length() - 1; conn1++) {
-			for (int conn2 = conn1 + 1; conn2 < peptideSequence.length(); conn2++) {
-				if (conn1 == conn2) {
-					continue;
-				}
-				
-				System.out.println("TEST STAPLE CONNECTIONS: " + conn1 + " " + conn2);
-				List<Integer> connections = Arrays.asList(conn1, conn2);
-				
-				for (PeptideType type : PeptideType.values()) {
-					System.out.println("PEPTIDE TYPE: " + type);
-					try {
-						Map<Integer, List<Integer>> graph = PeptideSerumStability.createGraphStructure(peptideSequence, connections, type);
-						
-						Peptide peptide = new Peptide();
-						if (type.equals(PeptideType.CUSTOM)) {
-							double customWeight = ThreadLocalRandom.current()
-								.nextDouble(0, 1000);
-							
-							System.out.println(customWeight);
+		List<Case> cases = new ArrayList<>();
+		
+		for (int length : getLengths(minLength, maxLength, lengthStep)) {
+			String peptideSequence = createSequence(length);
+			progress.println("TEST PEPTIDE: " + peptideSequence);
+			
+			for (int conn1 = 0; conn1 < peptideSequence.length() - 1; conn1++) {
+				for (int conn2 = conn1 + 1; conn2 < peptideSequence.length(); conn2++) {
+					List<Integer> connections = Arrays.asList(conn1, conn2);
+					
+					for (PeptideType type : PeptideType.values()) {
+						try {
+							cases.add(measure(peptideSequence, connections, type));
+						}
+						catch (Exception e) {
+							progress.println("ERROR!");
+							progress.println(type);
+							progress.println("Connection 1: " + conn1);
+							progress.println("Connection 2: " + conn2);
 							
-							peptide.setCustomWeight(customWeight);
+							e.printStackTrace();
+							System.exit(-1);
 						}
-						
-						peptide.setSequence(peptideSequence);
-						peptide.setConnections(connections);
-						peptide.setType(type);
-						peptide.setGraph(graph);
-						
-						FragmentAnalyzer analyzer = new FragmentAnalyzer(peptide);
-						analyzer.findAllFragments()
-							.measureAllFragmentWeights();
-						
-						System.out.println();
 					}
-					catch (Exception e) {
-						System.out.println("ERROR!");
-						System.out.println(type);
-						System.out.println("Connection 1: " + conn1);
-						System.out.println("Connection 2: " + conn2);
-						
-						e.printStackTrace();
-						System.exit(-1);
-						
-					}
-					
 				}
 			}
 		}
+		
+		try (Writer writer = Files.newBufferedWriter(Paths.get(reportFile), StandardCharsets.UTF_8)) {
+			if (reportFile.toLowerCase()
+				.endsWith(".json")) {
+				writeJson(writer, cases);
+			}
+			else {
+				writeCsv(writer, cases);
+			}
+		}
+		
+		progress.println("Done! " + cases.size() + " cases written to " + reportFile);
+	}
+	
+	/**
+	 * Analyzes one case and returns its measurements.
+	 * 
+	 * @param peptideSequence
+	 * @param connections
+	 * @param type
+	 * @return
+	 */
+	private static Case measure(String peptideSequence, List<Integer> connections, PeptideType type) {
+		Map<Integer, List<Integer>> graph = PeptideSerumStability.createGraphStructure(peptideSequence, connections, type);
+		
+		Peptide peptide = new Peptide();
+		if (type.equals(PeptideType.CUSTOM)) {
+			peptide.setCustomWeight(CUSTOM_WEIGHT);
+		}
+		
+		peptide.setSequence(peptideSequence);
+		peptide.setConnections(connections);
+		peptide.setType(type);
+		peptide.setGraph(graph);
+		
+		// Start every case from a collected heap, so the peak usage belongs to this case
+		System.gc();
+		List<MemoryPoolMXBean> heapPools = getHeapPools();
+		for (MemoryPoolMXBean pool : heapPools) {
+			pool.resetPeakUsage();
+		}
+		
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		
+		FragmentAnalyzer analyzer = new FragmentAnalyzer(peptide);
+		analyzer.findAllFragments()
+			.measureAllFragmentWeights();
+		
+		long wallNanos = System.nanoTime() - start;
+		long allocatedBytes = allocatedBefore == -1 ? -1 : getAllocatedBytes() - allocatedBefore;
+		
+		long peakHeapBytes = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			peakHeapBytes += pool.getPeakUsage()
+				.getUsed();
+		}
+		
+		long[] kinds = new long[4];
+		FragmentTable fragmentTable = analyzer.getFragmentTable();
+		for (int fragment = 0; fragment < fragmentTable.size(); fragment++) {
+			kinds[fragmentTable.getKind(fragment)]++;
+		}
+		
+		int conn1 = connections.get(0);
+		int conn2 = connections.get(1);
+		
+		return new Case().put("length", peptideSequence.length())
+			.put("connection1", conn1)
+			.put("connection2", conn2)
+			.put("distance", conn2 - conn1)
+			.put("type", type.name())
+			.put("fragments", fragmentTable.size())
+			.put("linear", kinds[FragmentTable.LINEAR])
+			.put("branched", kinds[FragmentTable.BRANCHED])
+			.put("cyclic", kinds[FragmentTable.CYCLIC])
+			.put("connected", kinds[FragmentTable.CONNECTED])
+			.put("wallNanos", wallNanos)
+			.put("peakHeapBytes", peakHeapBytes)
+			.put("allocatedBytes", allocatedBytes);
+	}
+	
+	/**
+	 * Returns the lengths from the shortest length to the longest length by the step, with the longest length added if the step skips it.
+	 * 
+	 * @param minLength
+	 * @param maxLength
+	 * @param lengthStep
+	 * @return
+	 */
+	private static List<Integer> getLengths(int minLength, int maxLength, int lengthStep) {
+		List<Integer> lengths = new ArrayList<>();
+		
+		for (int length = minLength; length <= maxLength; length += lengthStep) {
+			lengths.add(length);
+		}
+		
+		if (minLength <= maxLength && lengths.get(lengths.size() - 1) != maxLength) {
+			lengths.add(maxLength);
+		}
+		
+		return lengths;
+	}
+	
+	private static String createSequence(int length) {
+		StringBuilder sequence = new StringBuilder(length);
+		while (sequence.length() < length) {
+			sequence.append(BASE_SEQUENCE, 0, Math.min(BASE_SEQUENCE.length(), length - sequence.length()));
+		}
+		
+		return sequence.toString();
+	}
+	
+	private static List<MemoryPoolMXBean> getHeapPools() {
+		List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool);
+			}
+		}
+		
+		return heapPools;
+	}
+	
+	/**
+	 * Returns the bytes allocated so far by the current thread, or -1 if the JVM does not measure them.
+	 * 
+	 * @return
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+			
+			if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+				return sunThreads.getThreadAllocatedBytes(Thread.currentThread()
+					.getId());
+			}
+		}
+		
+		return -1;
+	}
+	
+	private static void writeCsv(Writer writer, List<Case> cases) throws IOException {
+		writer.write(String.join(",", COLUMNS));
+		writer.write('\n');
+		
+		for (Case testCase : cases) {
+			for (int column = 0; column < COLUMNS.length; column++) {
+				if (column > 0) {
+					writer.write(',');
+				}
+				
+				writer.write(testCase.getValue(COLUMNS[column], false));
+			}
+			writer.write('\n');
+		}
+	}
+	
+	private static void writeJson(Writer writer, List<Case> cases) throws IOException {
+		writer.write("[\n");
+		
+		for (int i = 0; i < cases.size(); i++) {
+			writer.write("  {");
+			for (int column = 0; column < COLUMNS.length; column++) {
+				if (column > 0) {
+					writer.write(", ");
+				}
+				
+				writer.write("\"" + COLUMNS[column] + "\": " + cases.get(i)
+					.getValue(COLUMNS[column], true));
+			}
+			writer.write(i + 1 < cases.size() ? "},\n" : "}\n");
+		}
+		
+		writer.write("]\n");
 	}
 }
@@ -0,0 +1,254 @@
+package com.github.juliomarcopineda.tests;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.github.juliomarcopineda.ArrayFragmentLibrary;
+import com.github.juliomarcopineda.FragmentAnalyzer;
+import com.github.juliomarcopineda.FragmentLibraryCache;
+import com.github.juliomarcopineda.FragmentMatch;
+import com.github.juliomarcopineda.MappedFragmentLibrary;
+import com.github.juliomarcopineda.PeptideSerumStability;
+import com.github.juliomarcopineda.ResidueMassRegistry;
+import com.github.juliomarcopineda.peptide.Peptide;
+import com.github.juliomarcopineda.peptide.PeptideType;
+
+/**
+ * This class checks that the fragment library of a peptide survives a round trip through a library file. For every test peptide, the library
+ * created by the analyzer is written with MappedFragmentLibrary.write and mapped again, and its weights, tokens and matches are compared with the
+ * ones of the analyzer. The file must not open with the key of another peptide, and a FragmentLibraryCache must give the same matches whether it
+ * analyzes the peptide or loads it. Truncated files and files with offsets that do not increase must not open either, and a corrupt file in the
+ * cache must be analyzed again.
+ *
+ * The test prints one line per peptide and exits with status 1 if any peptide fails.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class FragmentLibraryTest {
+	private static final String SEQUENCE = "CGYEQDPWGVRYWYGCKKKKB";
+	private static final double CUSTOM_WEIGHT = 383.32;
+	private static final double THRESHOLD = 0.5;
+	
+	public static void main(String[] args) throws IOException {
+		Peptide[] peptides = { createPeptide(PeptideType.LINEAR), createPeptide(PeptideType.AMIDE, 0, 15), createPeptide(PeptideType.DFBP, 0, 15),
+				createPeptide(PeptideType.DFBP, 2, 9), createPeptide(PeptideType.DISULFIDE, 0, 15), createPeptide(PeptideType.CUSTOM, 4, 19),
+				createPeptide(PeptideType.DISULFIDE, 0, 5, 9, 15), createPeptide(PeptideType.AMIDE, 0, 15, 17, 20) };
+		
+		Path directory = Files.createTempDirectory("fragment-library-test");
+		FragmentLibraryCache cache = new FragmentLibraryCache(directory);
+		
+		boolean failed = false;
+		for (int i = 0; i < peptides.length; i++) {
+			Peptide peptide = peptides[i];
+			Peptide otherPeptide = peptides[(i + 1) % peptides.length];
+			
+			String error = check(peptide, otherPeptide, cache, directory, directory.resolve("library-" + i));
+			
+			String name = peptide.getType() + " " + peptide.getConnections();
+			if (error == null) {
+				System.out.println("OK " + name);
+			}
+			else {
+				System.out.println("FAILED " + name + ": " + error);
+				failed = true;
+			}
+		}
+		
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> file.toFile()
+				.delete());
+		}
+		Files.delete(directory);
+		
+		if (failed) {
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Checks the round trip of the library of the peptide and returns what went wrong, or null if nothing did.
+	 * 
+	 * @param peptide
+	 * @param otherPeptide
+	 * @param cache
+	 * @param directory
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static String check(Peptide peptide, Peptide otherPeptide, FragmentLibraryCache cache, Path directory, Path file) throws IOException {
+		ResidueMassRegistry residueMasses = ResidueMassRegistry.getDefault();
+		
+		FragmentAnalyzer analyzer = new FragmentAnalyzer(peptide);
+		analyzer.findAllFragments()
+			.measureAllFragmentWeights();
+		ArrayFragmentLibrary library = analyzer.createLibrary();
+		
+		String key = FragmentLibraryCache.createKey(peptide, residueMasses);
+		MappedFragmentLibrary.write(library, key, file);
+		MappedFragmentLibrary mapped = MappedFragmentLibrary.open(file, key);
+		
+		if (mapped.size() != library.size()) {
+			return "size " + mapped.size() + " instead of " + library.size();
+		}
+		
+		for (int i = 0; i < library.size(); i++) {
+			if (mapped.getMass(i) != library.getMass(i) || !Arrays.equals(mapped.getTokens(i), library.getTokens(i))) {
+				return "fragment " + i + " differs";
+			}
+		}
+		
+		// Every 50th weight of the library, so every match is found at least once
+		double[] massSpecData = new double[(library.size() + 49) / 50];
+		for (int i = 0; i < massSpecData.length; i++) {
+			massSpecData[i] = library.getMass(i * 50);
+		}
+		
+		String expected = toString(analyzer.matchFragments(massSpecData, THRESHOLD));
+		
+		FragmentAnalyzer loaded = new FragmentAnalyzer(peptide).loadLibrary(mapped);
+		if (!toString(loaded.matchFragments(massSpecData, THRESHOLD)).equals(expected)) {
+			return "matches of the mapped library differ";
+		}
+		
+		try {
+			MappedFragmentLibrary.open(file, FragmentLibraryCache.createKey(otherPeptide, residueMasses));
+			return "opened with the key of " + otherPeptide.getType() + " " + otherPeptide.getConnections();
+		}
+		catch (IOException e) {
+			// Expected
+		}
+		
+		String error = checkCorruptFiles(file, key, library.size());
+		if (error != null) {
+			return error;
+		}
+		
+		// The first analysis of the cache saves the library, the second one loads it
+		for (int round = 0; round < 2; round++) {
+			if (!toString(cache.analyze(peptide)
+				.matchFragments(massSpecData, THRESHOLD)).equals(expected)) {
+				return "matches of the cache differ in round " + round;
+			}
+		}
+		
+		// A corrupt file in the cache is a cache miss
+		Path cacheFile = directory.resolve(findCacheFile(directory, key));
+		Files.write(cacheFile, Arrays.copyOf(Files.readAllBytes(cacheFile), 100));
+		
+		if (!toString(cache.analyze(peptide)
+			.matchFragments(massSpecData, THRESHOLD)).equals(expected)) {
+			return "matches of the cache differ after its file was corrupted";
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Writes a truncated copy of the library file and a copy with two offsets swapped, and returns what went wrong if either of them opens.
+	 * 
+	 * @param file
+	 * @param key
+	 * @param size
+	 * @return
+	 * @throws IOException
+	 */
+	private static String checkCorruptFiles(Path file, String key, int size) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		Path corruptFile = file.resolveSibling(file.getFileName() + ".corrupt");
+		
+		Files.write(corruptFile, Arrays.copyOf(bytes, bytes.length - 4));
+		if (opens(corruptFile, key)) {
+			return "a truncated file opened";
+		}
+		
+		if (size >= 3) {
+			// The offsets are the ints right after the weights, which end 4 * (size + 1 + tokens) bytes before the end of the file
+			ByteBuffer buffer = ByteBuffer.wrap(bytes)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			int tokenCount = buffer.getInt(12);
+			int offsetsStart = bytes.length - 4 * (size + 1 + tokenCount);
+			
+			int first = buffer.getInt(offsetsStart + 4);
+			buffer.putInt(offsetsStart + 4, buffer.getInt(offsetsStart + 8));
+			buffer.putInt(offsetsStart + 8, first);
+			
+			Files.write(corruptFile, bytes);
+			if (opens(corruptFile, key)) {
+				return "a file with offsets that do not increase opened";
+			}
+		}
+		
+		Files.delete(corruptFile);
+		return null;
+	}
+	
+	private static boolean opens(Path file, String key) {
+		try {
+			MappedFragmentLibrary.open(file, key);
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the name of the file of the cache that holds the library with the key.
+	 * 
+	 * @param directory
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	private static String findCacheFile(Path directory, String key) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName()
+				.toString()
+				.endsWith(".fragments"))
+				.filter(file -> opens(file, key))
+				.findFirst()
+				.map(file -> file.getFileName()
+					.toString())
+				.orElseThrow(() -> new IOException("The cache has no file for " + key));
+		}
+	}
+	
+	private static String toString(List<FragmentMatch> matches) {
+		StringBuilder builder = new StringBuilder();
+		
+		for (FragmentMatch match : matches) {
+			builder.append(match.getMassSpecData())
+				.append(',')
+				.append(match.getFragment())
+				.append(',')
+				.append(match.getWeight())
+				.append('\n');
+		}
+		
+		return builder.toString();
+	}
+	
+	private static Peptide createPeptide(PeptideType type, Integer... connections) {
+		List<Integer> connectionList = Arrays.asList(connections);
+		
+		Peptide peptide = new Peptide();
+		if (type.equals(PeptideType.CUSTOM)) {
+			peptide.setCustomWeight(CUSTOM_WEIGHT);
+		}
+		
+		peptide.setSequence(SEQUENCE);
+		peptide.setType(type);
+		peptide.setConnections(connectionList);
+		peptide.setGraph(PeptideSerumStability.createGraphStructure(SEQUENCE, connectionList, type));
+		
+		return peptide;
+	}
+}
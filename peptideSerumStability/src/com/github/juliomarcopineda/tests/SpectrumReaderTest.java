@@ -0,0 +1,307 @@
+package com.github.juliomarcopineda.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.juliomarcopineda.SpectrumReader;
+
+/**
+ * This class checks the spectrum readers against small files written into a temporary directory: an mzML file with a zlib compressed array of 64
+ * bit floats and uncompressed arrays of 32 bit floats, an MGF file and a CSV peak list with headers, comments and a line with a non-numeric
+ * intensity. For every file the peaks read with their scan numbers are compared with the expected ones, and the spectra are read one at a time
+ * with SpectrumReader.readMassSpecData, which must refuse a file with several spectra when no scan number is given, and a scan number that is not
+ * in the file.
+ *
+ * The test prints one line per check and exits with status 1 if any check fails.
+ *
+ * @author Julio Pineda
+ *
+ */
+public class SpectrumReaderTest {
+	private static final double[] FIRST_MZS = { 101.0478, 175.119, 304.1615, 433.2041 };
+	private static final double[] FIRST_INTENSITIES = { 1200.5, 80.25, 15.75, 3 };
+	private static final double[] SECOND_MZS = { 120.5, 250.25, 500.125 };
+	private static final double[] SECOND_INTENSITIES = { 10, 20.5, 0.25 };
+	
+	private static boolean failed = false;
+	
+	public static void main(String[] args) throws IOException {
+		Path directory = Files.createTempDirectory("spectrum-reader-test");
+		
+		// Scan 12 has zlib compressed 64 bit m/z values and 32 bit intensities, the spectrum without a scan number is the second of the file
+		Path mzML = directory.resolve("run.mzML");
+		write(mzML, createMzML());
+		checkPeaks(mzML, "12: " + toString(FIRST_MZS, FIRST_INTENSITIES) + "2: " + toString(SECOND_MZS, SECOND_INTENSITIES));
+		checkSpectra(mzML, 12, 2);
+		
+		Path mgf = directory.resolve("run.mgf");
+		write(mgf, createMgf());
+		checkPeaks(mgf, "7: " + toString(FIRST_MZS, FIRST_INTENSITIES) + "2: " + toString(SECOND_MZS, new double[SECOND_MZS.length]));
+		checkSpectra(mgf, 7, 2);
+		
+		Path csv = directory.resolve("peaks.csv");
+		write(csv, createCsv());
+		checkPeaks(csv, "1: " + toString(FIRST_MZS, FIRST_INTENSITIES));
+		check(csv + " without a scan number", SpectrumReader.readMassSpecData(csv, SpectrumReader.ONLY_SPECTRUM)
+			.toDoubleArray(), FIRST_MZS);
+		
+		// The same MGF file compressed with gzip, whatever its name
+		Path gzip = directory.resolve("run.mgf.gz");
+		try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+			output.write(createMgf().getBytes(StandardCharsets.US_ASCII));
+		}
+		check(gzip + " scan 7", SpectrumReader.readMassSpecData(gzip, 7)
+			.toDoubleArray(), FIRST_MZS);
+		
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> file.toFile()
+				.delete());
+		}
+		Files.delete(directory);
+		
+		if (failed) {
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Reads all the peaks of the file with its reader and compares them, with the scan numbers of their spectra, with the expected text.
+	 * 
+	 * @param file
+	 * @param expected
+	 * @throws IOException
+	 */
+	private static void checkPeaks(Path file, String expected) throws IOException {
+		StringBuilder peaks = new StringBuilder();
+		
+		try (InputStream input = Files.newInputStream(file)) {
+			SpectrumReader.forFile(file.getFileName()
+				.toString())
+				.read(input, new SpectrumReader.PeakConsumer() {
+					@Override
+					public void startSpectrum(int scan) {
+						peaks.append(scan)
+							.append(": ");
+					}
+					
+					@Override
+					public void accept(double mz, double intensity) {
+						peaks.append(mz)
+							.append(' ')
+							.append(intensity)
+							.append(", ");
+					}
+				});
+		}
+		
+		report(file + " peaks", peaks.toString()
+			.equals(expected), peaks.toString());
+	}
+	
+	/**
+	 * Reads the two spectra of the file one at a time by their scan numbers, and checks that the file is refused without a scan number or with a scan
+	 * number it does not have.
+	 * 
+	 * @param file
+	 * @param firstScan
+	 * @param secondScan
+	 * @throws IOException
+	 */
+	private static void checkSpectra(Path file, int firstScan, int secondScan) throws IOException {
+		check(file + " scan " + firstScan, SpectrumReader.readMassSpecData(file, firstScan)
+			.toDoubleArray(), FIRST_MZS);
+		check(file + " scan " + secondScan, SpectrumReader.readMassSpecData(file, secondScan)
+			.toDoubleArray(), SECOND_MZS);
+		
+		checkRefused(file, SpectrumReader.ONLY_SPECTRUM);
+		checkRefused(file, 99);
+	}
+	
+	private static void checkRefused(Path file, int scan) {
+		try {
+			SpectrumReader.readMassSpecData(file, scan);
+			report(file + " refuses scan " + scan, false, "it was read");
+		}
+		catch (IOException e) {
+			report(file + " refuses scan " + scan, true, null);
+		}
+	}
+	
+	private static void check(String name, double[] actual, double[] expected) {
+		report(name, Arrays.equals(actual, expected), Arrays.toString(actual));
+	}
+	
+	private static void report(String name, boolean passed, String actual) {
+		if (passed) {
+			System.out.println("OK " + name);
+		}
+		else {
+			System.out.println("FAILED " + name + ": " + actual);
+			failed = true;
+		}
+	}
+	
+	private static String createMzML() throws IOException {
+		StringBuilder mzML = new StringBuilder();
+		
+		mzML.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+		mzML.append("<mzML xmlns=\"http://psi.hupo.org/ms/mzml\" version=\"1.1.0\">\n");
+		mzML.append("<run id=\"run\">\n");
+		mzML.append("<spectrumList count=\"2\">\n");
+		
+		mzML.append("<spectrum index=\"0\" id=\"controllerType=0 controllerNumber=1 scan=12\" defaultArrayLength=\"4\">\n");
+		mzML.append("<binaryDataArrayList count=\"2\">\n");
+		appendArray(mzML, "MS:1000514", encode(FIRST_MZS, true, true), true, true);
+		appendArray(mzML, "MS:1000515", encode(FIRST_INTENSITIES, false, false), false, false);
+		mzML.append("</binaryDataArrayList>\n");
+		mzML.append("</spectrum>\n");
+		
+		mzML.append("<spectrum index=\"1\" id=\"index=1\" defaultArrayLength=\"3\">\n");
+		mzML.append("<binaryDataArrayList count=\"2\">\n");
+		appendArray(mzML, "MS:1000514", encode(SECOND_MZS, false, false), false, false);
+		appendArray(mzML, "MS:1000515", encode(SECOND_INTENSITIES, false, false), false, false);
+		mzML.append("</binaryDataArrayList>\n");
+		mzML.append("</spectrum>\n");
+		
+		mzML.append("</spectrumList>\n");
+		mzML.append("<chromatogramList count=\"1\">\n");
+		mzML.append("<chromatogram index=\"0\" id=\"TIC\" defaultArrayLength=\"1\">\n");
+		mzML.append("<binaryDataArrayList count=\"1\">\n");
+		appendArray(mzML, "MS:1000514", encode(new double[] { 999 }, true, false), true, false);
+		mzML.append("</binaryDataArrayList>\n");
+		mzML.append("</chromatogram>\n");
+		mzML.append("</chromatogramList>\n");
+		mzML.append("</run>\n");
+		mzML.append("</mzML>\n");
+		
+		return mzML.toString();
+	}
+	
+	private static void appendArray(StringBuilder mzML, String arrayType, String binary, boolean is64Bit, boolean isCompressed) {
+		mzML.append("<binaryDataArray encodedLength=\"")
+			.append(binary.length())
+			.append("\">\n");
+		mzML.append("<cvParam cvRef=\"MS\" accession=\"")
+			.append(is64Bit ? "MS:1000523" : "MS:1000521")
+			.append("\" name=\"float\" value=\"\"/>\n");
+		mzML.append("<cvParam cvRef=\"MS\" accession=\"")
+			.append(isCompressed ? "MS:1000574" : "MS:1000576")
+			.append("\" name=\"compression\" value=\"\"/>\n");
+		mzML.append("<cvParam cvRef=\"MS\" accession=\"")
+			.append(arrayType)
+			.append("\" name=\"array\" value=\"\"/>\n");
+		mzML.append("<binary>")
+			.append(binary)
+			.append("</binary>\n");
+		mzML.append("</binaryDataArray>\n");
+	}
+	
+	/**
+	 * Encodes the values as base64 text of little-endian floats, optionally compressed with zlib. The test values are exact as 32 bit floats only
+	 * where 32 bit floats are used.
+	 * 
+	 * @param values
+	 * @param is64Bit
+	 * @param isCompressed
+	 * @return
+	 * @throws IOException
+	 */
+	private static String encode(double[] values, boolean is64Bit, boolean isCompressed) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * (is64Bit ? 8 : 4))
+			.order(ByteOrder.LITTLE_ENDIAN);
+		
+		for (double value : values) {
+			if (is64Bit) {
+				buffer.putDouble(value);
+			}
+			else {
+				buffer.putFloat((float) value);
+			}
+		}
+		
+		byte[] bytes = buffer.array();
+		if (isCompressed) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try (DeflaterOutputStream deflater = new DeflaterOutputStream(output)) {
+				deflater.write(bytes);
+			}
+			bytes = output.toByteArray();
+		}
+		
+		return Base64.getEncoder()
+			.encodeToString(bytes);
+	}
+	
+	private static String createMgf() {
+		List<String> lines = new ArrayList<>();
+		
+		lines.add("# exported for the test");
+		lines.add("BEGIN IONS");
+		lines.add("TITLE=first");
+		lines.add("PEPMASS=500.25");
+		lines.add("SCANS=7");
+		for (int i = 0; i < FIRST_MZS.length; i++) {
+			lines.add(FIRST_MZS[i] + " " + FIRST_INTENSITIES[i]);
+		}
+		lines.add("END IONS");
+		lines.add("");
+		
+		// Without a scan number and without intensities
+		lines.add("BEGIN IONS");
+		lines.add("TITLE=second");
+		for (double mz : SECOND_MZS) {
+			lines.add(Double.toString(mz));
+		}
+		lines.add("END IONS");
+		
+		return String.join("\n", lines) + "\n";
+	}
+	
+	private static String createCsv() {
+		List<String> lines = new ArrayList<>();
+		
+		lines.add("m/z,intensity");
+		lines.add("--- exported for the test");
+		lines.add("");
+		lines.add(FIRST_MZS[0] + "," + FIRST_INTENSITIES[0]);
+		lines.add("+ not a peak");
+		lines.add(FIRST_MZS[1] + ";" + FIRST_INTENSITIES[1]);
+		lines.add("500.1,abc");
+		lines.add(". not a peak either");
+		lines.add("  " + FIRST_MZS[2] + ", " + FIRST_INTENSITIES[2]);
+		lines.add(FIRST_MZS[3] + "\t" + FIRST_INTENSITIES[3]);
+		
+		return String.join("\n", lines) + "\n";
+	}
+	
+	private static void write(Path file, String text) throws IOException {
+		Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+	}
+	
+	private static String toString(double[] mzs, double[] intensities) {
+		StringBuilder peaks = new StringBuilder();
+		
+		for (int i = 0; i < mzs.length; i++) {
+			peaks.append(mzs[i])
+				.append(' ')
+				.append(intensities[i])
+				.append(", ");
+		}
+		
+		return peaks.toString();
+	}
+}